@@ -0,0 +1,78 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full round trips of {@link ApiWrapper} against an in-process stub of the API, serving every currency.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ApiWrapperBenchmark {
+    private static final Logger REQUESTER_LOGGER = Logger.getLogger(HtmlRequester.class.getName());
+
+    private StubApiServer server;
+    private ApiWrapper api;
+
+    /**
+     * Starts the stub, & silences the per-request log line, so logging isn't what's being measured.
+     *
+     * @throws IOException If the stub can't be started
+     */
+    @Setup
+    public void setUp() throws IOException {
+        REQUESTER_LOGGER.setLevel(Level.WARNING);
+        server = new StubApiServer(Payloads.allCurrencies());
+        api = new ApiWrapper("benchmark", server.getBaseUrl());
+    }
+
+    /**
+     * Stops the stub.
+     */
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Requests the latest rates as a map.
+     *
+     * @return The received rates
+     * @throws ApiWrapper.RequestFailedException If the request fails
+     * @throws IOException If an {@link IOException} occurs when requesting
+     */
+    @Benchmark
+    public Map<String, Double> requestLatestRates() throws ApiWrapper.RequestFailedException, IOException {
+        return api.requestLatestRates("USD", null);
+    }
+
+    /**
+     * Requests the latest rates as a {@link RateTable}.
+     *
+     * @return The received rates
+     * @throws ApiWrapper.RequestFailedException If the request fails
+     * @throws IOException If an {@link IOException} occurs when requesting
+     */
+    @Benchmark
+    public RateTable requestRateTable() throws ApiWrapper.RequestFailedException, IOException {
+        return api.requestRateTable("USD", null);
+    }
+}
@@ -0,0 +1,29 @@
+package currencyexchanger;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the same arguments as the regular JMH runner,
+ * but always enables the GC profiler, so every result includes the allocation rate.
+ */
+class BenchmarkRunner {
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args JMH command line arguments, e.g. a regex selecting which benchmarks to run
+     * @throws CommandLineOptionException If the arguments are invalid
+     * @throws RunnerException If running the benchmarks fails
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,126 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Fan-out of updated rates from {@link RatesManager} to its listeners.
+ * {@link #updateRates()} includes fetching from an in-process stub, {@link #publish()} is the fan-out alone.
+ * With {@code caller} dispatch, listeners run on the publishing thread, so the full cost of every listener is measured.
+ * With {@code pool} dispatch, only the cost of handing the rates off to the listeners is measured.
+ * <p>
+ * The manager skips updates whose rates are unchanged, without dispatching them to any listener.
+ * Both benchmarks therefore alternate between rates that differ in every currency:
+ * the stub rotates between {@link #VARIANTS} payloads, & {@link #publish()} between as many fetched tables.
+ * Anything else that short-circuits repeated rates has to be kept from short-circuiting these too,
+ * or the benchmarks silently stop measuring the fan-out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ListenerDispatchBenchmark {
+    private static final Logger REQUESTER_LOGGER = Logger.getLogger(HtmlRequester.class.getName());
+
+    /**
+     * The amount of differing rates to alternate between.
+     */
+    private static final int VARIANTS = 2;
+
+    @Param({"1", "100", "10000"})
+    public int listenerCount;
+
+    @Param({"caller", "pool"})
+    public String dispatch;
+
+    private StubApiServer server;
+    private RatesManager manager;
+    private RateTable[] rates;
+    private int nextRates;
+
+    /**
+     * Starts the stub, & creates a manager with {@link #listenerCount} listeners that each read one rate.
+     *
+     * @param blackhole Consumes the rates read by the listeners
+     * @throws Exception If the stub can't be started, or the initial rates can't be fetched
+     */
+    @Setup
+    public void setUp(Blackhole blackhole) throws Exception {
+        REQUESTER_LOGGER.setLevel(Level.WARNING);
+        byte[][] payloads = new byte[VARIANTS][];
+        for (int variant = 0; variant < VARIANTS; variant++) {
+            payloads[variant] = Payloads.allCurrencies(variant);
+        }
+        server = new StubApiServer(payloads);
+        RatesManager.Builder builder = new RatesManager.Builder("benchmark")
+                .setApiUrl(server.getBaseUrl())
+                .setBaseCurrency("USD");
+        if (dispatch.equals("caller")) {
+            builder.setListenerExecutor(Runnable::run);
+        }
+        manager = builder.build();
+        CurrencyId eur = CurrencyId.of("EUR");
+        for (int i = 0; i < listenerCount; i++) {
+            manager.addListener(new RatesUpdateListener() {
+                @Override
+                public void onUpdate(Map<String, Double> rates) {
+                    blackhole.consume(rates.get("EUR"));
+                }
+
+                @Override
+                public void onUpdate(RateTable rates) {
+                    blackhole.consume(rates.rate(eur));
+                }
+            });
+        }
+        ApiWrapper api = new ApiWrapper("benchmark", server.getBaseUrl());
+        rates = new RateTable[VARIANTS];
+        for (int variant = 0; variant < VARIANTS; variant++) {
+            rates[variant] = api.requestRateTable("USD", null);
+        }
+    }
+
+    /**
+     * Stops the stub.
+     */
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Fetches rates from the stub, which differ from the previous ones, & dispatches them to every listener.
+     */
+    @Benchmark
+    public void updateRates() {
+        manager.updateRates();
+    }
+
+    /**
+     * Dispatches already fetched rates to every listener, alternating between differing rates.
+     */
+    @Benchmark
+    public void publish() {
+        manager.publish(rates[nextRates], Instant.now());
+        nextRates = (nextRates + 1) % VARIANTS;
+    }
+}
@@ -0,0 +1,107 @@
+package currencyexchanger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Locale;
+
+/**
+ * Realistic response payloads of the freecurrencyapi {@code /v1/latest} endpoint.
+ */
+final class Payloads {
+    /**
+     * Every currency available from freecurrencyapi.
+     */
+    static final List<String> ALL_CURRENCIES = List.of(
+            "AUD", "BGN", "BRL", "CAD", "CHF", "CNY", "CZK", "DKK", "EUR", "GBP", "HKD",
+            "HRK", "HUF", "IDR", "ILS", "INR", "ISK", "JPY", "KRW", "MXN", "MYR", "NOK",
+            "NZD", "PHP", "PLN", "RON", "RUB", "SEK", "SGD", "THB", "TRY", "USD", "ZAR"
+    );
+
+    /**
+     * The most currencies {@link #syntheticCurrencies(int)} can make up, one for every three-letter code.
+     */
+    static final int MAX_SYNTHETIC_CURRENCIES = 26 * 26 * 26;
+
+    /**
+     * Not instantiable.
+     */
+    private Payloads() {
+    }
+
+    /**
+     * Creates a response payload with rates for every available currency.
+     *
+     * @return The response payload, as UTF-8
+     */
+    static byte[] allCurrencies() {
+        return latestRates(ALL_CURRENCIES);
+    }
+
+    /**
+     * Creates a response payload with rates for every available currency, in one of several variants.
+     *
+     * @param variant The variant of the rates, see {@link #latestRates(List, int)}
+     * @return The response payload, as UTF-8
+     */
+    static byte[] allCurrencies(int variant) {
+        return latestRates(ALL_CURRENCIES, variant);
+    }
+
+    /**
+     * Makes up an amount of currencies, for payloads larger than the real API ever sends.
+     * The real currencies come first, followed by made-up three-letter codes.
+     *
+     * @param count The amount of currencies to make up
+     * @return The currencies
+     * @throws IllegalArgumentException If {@code count} is negative, or above {@link #MAX_SYNTHETIC_CURRENCIES}
+     */
+    static List<String> syntheticCurrencies(int count) {
+        if (count < 0 || count > MAX_SYNTHETIC_CURRENCIES) {
+            throw new IllegalArgumentException("Can't make up " + count + " currencies");
+        }
+        Set<String> currencies = new LinkedHashSet<>(ALL_CURRENCIES.subList(0, Math.min(count, ALL_CURRENCIES.size())));
+        for (int code = 0; currencies.size() < count; code++) {
+            currencies.add(new String(new char[]{
+                    (char) ('A' + code / (26 * 26)),
+                    (char) ('A' + code / 26 % 26),
+                    (char) ('A' + code % 26)
+            }));
+        }
+        return new ArrayList<>(currencies);
+    }
+
+    /**
+     * Creates a response payload with rates for the specified currencies.
+     * The rates vary in magnitude, like real rates do.
+     *
+     * @param currencies The currencies to include rates for
+     * @return The response payload, as UTF-8
+     */
+    static byte[] latestRates(List<String> currencies) {
+        return latestRates(currencies, 0);
+    }
+
+    /**
+     * Creates a response payload with rates for the specified currencies, in one of several variants.
+     * Every rate differs between variants, so updates alternating between them are never skipped as unchanged.
+     *
+     * @param currencies The currencies to include rates for
+     * @param variant    The variant of the rates, where {@code 0} is the same as {@link #latestRates(List)}
+     * @return The response payload, as UTF-8
+     */
+    static byte[] latestRates(List<String> currencies, int variant) {
+        StringBuilder json = new StringBuilder("{\"data\":{");
+        for (int i = 0; i < currencies.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double rate = Math.pow(10, (i % 7) - 2) * (1 + (i * 0.6180339887) % 1) * (1 + variant * 0.001);
+            json.append('"').append(currencies.get(i)).append("\":")
+                    .append(String.format(Locale.ROOT, "%.10f", rate));
+        }
+        return json.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package currencyexchanger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a full-currency-list response, from the raw body to usable rates.
+ * Compares the json tree path of {@link HtmlRequester.Response} with the streaming path of {@link ApiWrapper},
+ * & the cost of building a boxed map versus a {@link RateTable}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ResponseParseBenchmark {
+    private byte[] payload;
+
+    /**
+     * Creates the payload.
+     */
+    @Setup
+    public void setUp() {
+        payload = Payloads.allCurrencies();
+    }
+
+    /**
+     * Reads the body into a {@link HtmlRequester.Response}, & walks its json tree into a map.
+     *
+     * @return The parsed rates
+     * @throws IOException Never, as the body is read from memory
+     */
+    @Benchmark
+    public Map<String, Double> treeToMap() throws IOException {
+        HtmlRequester.Response response = HtmlRequester.Response.read(200, "OK", new ByteArrayInputStream(payload));
+        JsonNode json = response.getJson().get("data");
+        Map<String, Double> rates = new HashMap<>();
+        for (Iterator<String> it = json.fieldNames(); it.hasNext(); ) {
+            String currencyName = it.next();
+            rates.put(currencyName, json.get(currencyName).asDouble());
+        }
+        return rates;
+    }
+
+    /**
+     * Stream-parses the body into a map, as {@link ApiWrapper#requestLatestRates(String, java.util.Collection)} does.
+     *
+     * @return The parsed rates
+     * @throws IOException Never, as the body is read from memory
+     */
+    @Benchmark
+    public Map<String, Double> streamToMap() throws IOException {
+        Map<String, Double> rates = new HashMap<>();
+        ApiWrapper.parseRates(200, "OK", new ByteArrayInputStream(payload), rates::put);
+        return rates;
+    }
+
+    /**
+     * Stream-parses the body into a {@link RateTable},
+     * as {@link ApiWrapper#requestRateTable(String, java.util.Collection)} does.
+     *
+     * @return The parsed rates
+     * @throws IOException Never, as the body is read from memory
+     */
+    @Benchmark
+    public RateTable streamToTable() throws IOException {
+        RateTable.Builder rates = new RateTable.Builder(CurrencyId.of("USD"));
+        ApiWrapper.parseRates(200, "OK", new ByteArrayInputStream(payload), rates::put);
+        return rates.build();
+    }
+}
@@ -0,0 +1,501 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-running load test of {@link RatesManager}, {@link ApiWrapper} & {@link HtmlRequester} together,
+ * against an in-process {@link StubApiServer}, to qualify a release at production polling rates.
+ * <p>
+ * Many managers poll the stub at short intervals, each with many listeners. Every so often, a manager is stopped
+ * & replaced by a new one, so threads or memory that outlive a manager show up as growth over the run.
+ * While running, throughput, p99 update latency, live threads & heap use are printed for every reporting window,
+ * so drift over the run is visible. Once done, a JFR recording of the run is summarized into a report
+ * of throughput, latency, allocation per update & heap growth.
+ * <p>
+ * Update latency is the time from when a manager finished retrieving rates, until a listener received them.
+ * Request latency is the time taken by each request, as measured by the managers themselves.
+ * <p>
+ * Run from the benchmarks directory, after {@code mvn package}:
+ * <pre>
+ * java -cp target/benchmarks.jar currencyexchanger.SoakHarness --duration 2h --managers 200 --interval 250ms
+ * </pre>
+ * Run with {@code --help} for all options.
+ */
+final class SoakHarness {
+    private static final Logger LIBRARY_LOGGER = Logger.getLogger(RatesManager.class.getPackageName());
+
+    private final Options options;
+    private final StubApiServer server;
+    private final RatesManager[] managers;
+    private final AtomicReference<LatencyHistogram> windowUpdateLatency;
+    private final LongAdder deliveries;
+    private final LongAdder supersededDeliveries;
+    private final ThreadMXBean threads;
+
+    private volatile LatencyHistogram updateLatency;
+    private long retiredSuccesses;
+    private long retiredFailures;
+    private long retiredRequestP99Nanos;
+    private int churned;
+
+    /**
+     * Creates the harness, & starts the stub.
+     *
+     * @param options The options to run with
+     * @throws IOException If the stub can't be started
+     */
+    private SoakHarness(Options options) throws IOException {
+        this.options = options;
+        this.server = new StubApiServer.Builder(Payloads.latestRates(Payloads.syntheticCurrencies(options.currencies)))
+                .setLatency(options.latency)
+                .setErrorRate(options.errorRate)
+                .build();
+        this.managers = new RatesManager[options.managers];
+        this.updateLatency = new LatencyHistogram();
+        this.windowUpdateLatency = new AtomicReference<>(new LatencyHistogram());
+        this.deliveries = new LongAdder();
+        this.supersededDeliveries = new LongAdder();
+        this.threads = ManagementFactory.getThreadMXBean();
+
+        this.retiredSuccesses = 0;
+        this.retiredFailures = 0;
+        this.retiredRequestP99Nanos = 0;
+        this.churned = 0;
+    }
+
+    /**
+     * Runs the harness.
+     *
+     * @param args The options to run with, see {@code --help}
+     * @throws IOException If the stub can't be started, or the recording can't be written
+     * @throws InterruptedException If interrupted while running
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options == null) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+        // Failures are expected when an error rate is set, & are counted instead
+        LIBRARY_LOGGER.setLevel(Level.SEVERE);
+
+        SoakHarness harness = new SoakHarness(options);
+        try {
+            harness.run();
+        } finally {
+            harness.server.close();
+        }
+    }
+
+    /**
+     * Warms up, runs & records the load, & prints the report.
+     *
+     * @throws IOException If the recording can't be written
+     * @throws InterruptedException If interrupted while running
+     */
+    private void run() throws IOException, InterruptedException {
+        System.out.printf(
+                "%d managers x %d listeners, polling every %d ms, %d currencies, %d ms stub latency, %.1f%% errors%n",
+                options.managers,
+                options.listeners,
+                options.interval.toMillis(),
+                options.currencies,
+                options.latency.toMillis(),
+                options.errorRate * 100
+        );
+        // Starts are spread over an interval, so managers don't all poll at once
+        for (int i = 0; i < managers.length; i++) {
+            managers[i] = startManager();
+            Thread.sleep(options.interval.toMillis() / managers.length);
+        }
+        System.out.printf("Warming up for %d s%n", options.warmup.toSeconds());
+        Thread.sleep(options.warmup.toMillis());
+
+        SoakRecording recording = new SoakRecording(options.recording);
+        long startSuccesses = successCount();
+        long startFailures = failureCount();
+        long startDeliveries = deliveries.sum();
+        long startRequests = server.getRequestCount();
+        int startThreads = threads.getThreadCount();
+        long startStartedThreads = threads.getTotalStartedThreadCount();
+        updateLatency = new LatencyHistogram();
+        windowUpdateLatency.set(new LatencyHistogram());
+        threads.resetPeakThreadCount();
+        recording.start();
+        long start = System.nanoTime();
+        System.out.printf("Running for %d s, recording to %s%n", options.duration.toSeconds(), options.recording);
+
+        long end = start + options.duration.toNanos();
+        long nextChurn = options.churn.isZero() ? Long.MAX_VALUE : start + options.churn.toNanos();
+        long windowStart = start;
+        long windowSuccesses = startSuccesses;
+        long windowDeliveries = startDeliveries;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            long nextReport = Math.min(windowStart + options.report.toNanos(), end);
+            Thread.sleep(Math.max(TimeUnit.NANOSECONDS.toMillis(Math.min(nextReport, nextChurn) - now), 1));
+            now = System.nanoTime();
+            if (now >= nextChurn) {
+                churn();
+                nextChurn += options.churn.toNanos();
+            }
+            if (now >= nextReport) {
+                long successes = successCount();
+                long delivered = deliveries.sum();
+                printWindow(now - start, now - windowStart, successes - windowSuccesses, delivered - windowDeliveries);
+                windowStart = now;
+                windowSuccesses = successes;
+                windowDeliveries = delivered;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long updates = successCount() - startSuccesses;
+        long failures = failureCount() - startFailures;
+        long delivered = deliveries.sum() - startDeliveries;
+        long requests = server.getRequestCount() - startRequests;
+        int endThreads = threads.getThreadCount();
+        int peakThreads = threads.getPeakThreadCount();
+        long startedThreads = threads.getTotalStartedThreadCount() - startStartedThreads;
+        long[] requestP99Nanos = new long[managers.length];
+        for (int i = 0; i < managers.length; i++) {
+            managers[i].stop();
+            requestP99Nanos[i] = managers[i].metrics().getRequestLatency().getP99Nanos();
+        }
+        Arrays.sort(requestP99Nanos);
+        recording.stop();
+
+        double seconds = elapsed / 1e9;
+        System.out.println();
+        System.out.println("Soak report");
+        System.out.printf("  duration             %.0f s, %d managers replaced%n", seconds, churned);
+        System.out.printf(
+                "  throughput           %.1f updates/s, %.1f deliveries/s, %.1f requests/s%n",
+                updates / seconds,
+                delivered / seconds,
+                requests / seconds
+        );
+        System.out.printf(
+                "  failures             %d (%.2f%% of updates)%n",
+                failures,
+                updates + failures == 0 ? 0 : 100.0 * failures / (updates + failures)
+        );
+        LatencySummary latency = updateLatency.summary();
+        System.out.printf(
+                "  update latency       p50 %s, p99 %s, max %s, %d deliveries of superseded rates%n",
+                millis(latency.getP50Nanos()),
+                millis(latency.getP99Nanos()),
+                millis(latency.getMaxNanos()),
+                supersededDeliveries.sum()
+        );
+        System.out.printf(
+                "  request latency p99  median manager %s, worst manager %s%n",
+                millis(requestP99Nanos[requestP99Nanos.length / 2]),
+                millis(Math.max(requestP99Nanos[requestP99Nanos.length - 1], retiredRequestP99Nanos))
+        );
+        System.out.printf(
+                "  allocation           %s per update, %s/s (stub: %s/s)%n",
+                bytes(updates == 0 ? 0 : recording.getClientAllocatedBytes() / updates),
+                bytes((long) (recording.getClientAllocatedBytes() / seconds)),
+                bytes((long) (recording.getServerAllocatedBytes() / seconds))
+        );
+        for (Map.Entry<String, Long> allocated : recording.getTopAllocatedClasses(5)) {
+            System.out.printf(
+                    "    %5.1f%%  %s%n",
+                    recording.getClientAllocatedBytes() == 0
+                            ? 0
+                            : 100.0 * allocated.getValue() / recording.getClientAllocatedBytes(),
+                    allocated.getKey()
+            );
+        }
+        System.out.printf(
+                "  heap after gc        first %s, last %s, peak %s, over %d collections%n",
+                bytes(recording.getFirstHeapAfterGc()),
+                bytes(recording.getLastHeapAfterGc()),
+                bytes(recording.getPeakHeapAfterGc()),
+                recording.getGcCount()
+        );
+        System.out.printf(
+                "  live threads         start %d, end %d, peak %d, %d started meanwhile%n",
+                startThreads,
+                endThreads,
+                peakThreads,
+                startedThreads
+        );
+        System.out.printf("  recording            %s%n", recording.getDestination());
+    }
+
+    /**
+     * Builds & starts a manager that polls the stub, with listeners that record how long updates took to arrive.
+     *
+     * @return The started manager
+     */
+    private RatesManager startManager() {
+        RatesManager manager = new RatesManager.Builder("soak")
+                .setApiUrl(server.getBaseUrl())
+                .build();
+        for (int i = 0; i < options.listeners; i++) {
+            manager.addListener(new SoakListener(manager));
+        }
+        manager.start(options.interval.toMillis(), TimeUnit.MILLISECONDS);
+        return manager;
+    }
+
+    /**
+     * Stops a random manager, & replaces it with a new one.
+     */
+    private void churn() {
+        int index = ThreadLocalRandom.current().nextInt(managers.length);
+        RatesManager retired = managers[index];
+        retired.stop();
+        RatesMetrics metrics = retired.metrics();
+        retiredSuccesses += metrics.getSuccessCount();
+        retiredFailures += metrics.getFailureCount();
+        retiredRequestP99Nanos = Math.max(retiredRequestP99Nanos, metrics.getRequestLatency().getP99Nanos());
+        managers[index] = startManager();
+        churned++;
+    }
+
+    /**
+     * Prints the results of a reporting window.
+     *
+     * @param elapsedNanos The time since the run started
+     * @param windowNanos  The length of the window
+     * @param updates      The amount of rate updates retrieved in the window
+     * @param delivered    The amount of updates delivered to listeners in the window
+     */
+    private void printWindow(long elapsedNanos, long windowNanos, long updates, long delivered) {
+        double seconds = windowNanos / 1e9;
+        LatencySummary latency = windowUpdateLatency.getAndSet(new LatencyHistogram()).summary();
+        System.out.printf(
+                "[%6d s] %8.1f updates/s %9.1f deliveries/s   update p99 %9s   %4d threads   heap %s%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsedNanos),
+                updates / seconds,
+                delivered / seconds,
+                millis(latency.getP99Nanos()),
+                threads.getThreadCount(),
+                bytes(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed())
+        );
+    }
+
+    /**
+     * Returns how many updates have succeeded, across all managers, including replaced ones.
+     *
+     * @return The amount of updates that have succeeded
+     */
+    private long successCount() {
+        long successes = retiredSuccesses;
+        for (RatesManager manager : managers) {
+            successes += manager.metrics().getSuccessCount();
+        }
+        return successes;
+    }
+
+    /**
+     * Returns how many updates have failed, across all managers, including replaced ones.
+     *
+     * @return The amount of updates that have failed
+     */
+    private long failureCount() {
+        long failures = retiredFailures;
+        for (RatesManager manager : managers) {
+            failures += manager.metrics().getFailureCount();
+        }
+        return failures;
+    }
+
+    /**
+     * Formats a time in milliseconds.
+     *
+     * @param nanos The time, in nanoseconds
+     * @return The formatted time
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+    }
+
+    /**
+     * Formats an amount of bytes, in the largest fitting unit.
+     *
+     * @param bytes The amount of bytes
+     * @return The formatted amount, or {@code n/a} if it's negative
+     */
+    private static String bytes(long bytes) {
+        if (bytes < 0) {
+            return "n/a";
+        } else if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * A listener that reads a rate from every update, & records how long the update took to arrive.
+     */
+    private class SoakListener implements RatesUpdateListener {
+        private final RatesManager manager;
+        private double checksum;
+
+        /**
+         * Creates the listener.
+         *
+         * @param manager The manager the listener listens to
+         */
+        private SoakListener(RatesManager manager) {
+            this.manager = manager;
+            this.checksum = 0;
+        }
+
+        @Override
+        public void onUpdate(Map<String, Double> rates) {
+            deliveries.increment();
+            checksum += rates.isEmpty() ? 0 : rates.values().iterator().next();
+        }
+
+        @Override
+        public void onUpdate(RateTable rates) {
+            Instant received = Instant.now();
+            deliveries.increment();
+            checksum += rates.size() == 0 ? 0 : rates.rate(rates.currencyAt(0));
+
+            RatesSnapshot latest = manager.latest();
+            if (latest == null || latest.getRates() != rates) {
+                // Newer rates arrived meanwhile, so when these were retrieved isn't known
+                supersededDeliveries.increment();
+                return;
+            }
+            long nanos = Math.max(Duration.between(latest.getFetchedAt(), received).toNanos(), 0);
+            updateLatency.record(nanos);
+            windowUpdateLatency.get().record(nanos);
+        }
+    }
+
+    /**
+     * Options of a run, parsed from the command line.
+     */
+    private static class Options {
+        private static final String USAGE = String.join(System.lineSeparator(), List.of(
+                "Options:",
+                "  --duration <time>     How long to record the load for, e.g. 90s, 30m or 2h (default 60s)",
+                "  --warmup <time>       How long to run before recording (default 10s)",
+                "  --managers <n>        Managers polling the stub (default 50)",
+                "  --listeners <n>       Listeners per manager (default 10)",
+                "  --interval <time>     Time between updates of each manager, e.g. 250ms (default 250ms)",
+                "  --currencies <n>      Currencies in each response, up to " + Payloads.MAX_SYNTHETIC_CURRENCIES
+                        + " (default " + Payloads.ALL_CURRENCIES.size() + ")",
+                "  --latency <time>      Time the stub takes to respond (default 5ms)",
+                "  --error-rate <share>  Share of requests the stub fails, e.g. 0.01 (default 0)",
+                "  --churn <time>        Time between replacing a manager with a new one, or 0 to never (default 10s)",
+                "  --report <time>       Length of each reporting window (default 10s)",
+                "  --recording <file>    File to write the JFR recording to (default soak.jfr)"
+        ));
+
+        private Duration duration = Duration.ofSeconds(60);
+        private Duration warmup = Duration.ofSeconds(10);
+        private int managers = 50;
+        private int listeners = 10;
+        private Duration interval = Duration.ofMillis(250);
+        private int currencies = Payloads.ALL_CURRENCIES.size();
+        private Duration latency = Duration.ofMillis(5);
+        private double errorRate = 0;
+        private Duration churn = Duration.ofSeconds(10);
+        private Duration report = Duration.ofSeconds(10);
+        private Path recording = Path.of("soak.jfr");
+
+        /**
+         * Parses options from the command line.
+         *
+         * @param args The command line arguments
+         * @return The parsed options, or {@code null} if help was asked for
+         * @throws IllegalArgumentException If the arguments are invalid
+         */
+        private static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--help") || option.equals("-h")) {
+                    return null;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing a value for " + option);
+                }
+                String value = args[++i];
+                try {
+                    switch (option) {
+                        case "--duration" -> options.duration = parseDuration(value);
+                        case "--warmup" -> options.warmup = parseDuration(value);
+                        case "--managers" -> options.managers = Integer.parseInt(value);
+                        case "--listeners" -> options.listeners = Integer.parseInt(value);
+                        case "--interval" -> options.interval = parseDuration(value);
+                        case "--currencies" -> options.currencies = Integer.parseInt(value);
+                        case "--latency" -> options.latency = parseDuration(value);
+                        case "--error-rate" -> options.errorRate = Double.parseDouble(value);
+                        case "--churn" -> options.churn = parseDuration(value);
+                        case "--report" -> options.report = parseDuration(value);
+                        case "--recording" -> options.recording = Path.of(value);
+                        default -> throw new IllegalArgumentException("Unknown option " + option);
+                    }
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+                }
+            }
+            if (options.managers <= 0 || options.listeners < 0 || options.interval.toMillis() <= 0
+                    || options.duration.isZero() || options.report.isZero()) {
+                throw new IllegalArgumentException(
+                        "The duration, report window, interval & amount of managers must be positive"
+                );
+            }
+            return options;
+        }
+
+        /**
+         * Parses a duration such as {@code 250ms}, {@code 90s}, {@code 30m} or {@code 2h}.
+         *
+         * @param value The duration to parse. A lone {@code 0} is allowed, without a unit
+         * @return The parsed duration
+         * @throws NumberFormatException If the duration is invalid
+         */
+        private static Duration parseDuration(String value) {
+            if (value.equals("0")) {
+                return Duration.ZERO;
+            }
+            int unitStart = 0;
+            while (unitStart < value.length() && Character.isDigit(value.charAt(unitStart))) {
+                unitStart++;
+            }
+            long amount = Long.parseLong(value.substring(0, unitStart));
+            return switch (value.substring(unitStart)) {
+                case "ms" -> Duration.ofMillis(amount);
+                case "s" -> Duration.ofSeconds(amount);
+                case "m" -> Duration.ofMinutes(amount);
+                case "h" -> Duration.ofHours(amount);
+                default -> throw new NumberFormatException("Unknown time unit in " + value);
+            };
+        }
+    }
+}
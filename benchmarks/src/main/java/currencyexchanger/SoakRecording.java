@@ -0,0 +1,207 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * A JFR recording of a {@link SoakHarness} run, summarized once it's stopped.
+ * <p>
+ * Allocation is estimated from {@code jdk.ObjectAllocationSample} events, whose weights add up to roughly
+ * all bytes allocated. Allocations on the threads of the {@link StubApiServer}, of JFR itself, & on the thread
+ * that started the recording are left out, so what's left is the work of the client.
+ * The recording file is kept, for closer inspection in JDK Mission Control.
+ */
+final class SoakRecording {
+    private static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    private static final String HEAP_SUMMARY = "jdk.GCHeapSummary";
+
+    private final Recording recording;
+    private final Path destination;
+
+    private long harnessThreadId;
+    private long clientAllocatedBytes;
+    private long serverAllocatedBytes;
+    private Map<String, Long> allocatedBytesByClass;
+    private int gcCount;
+    private long firstHeapAfterGc;
+    private long lastHeapAfterGc;
+    private long peakHeapAfterGc;
+
+    /**
+     * Creates the recording, based on the default JFR settings.
+     *
+     * @param destination The file to write the recording to
+     * @throws IOException If the default JFR settings can't be read
+     */
+    SoakRecording(Path destination) throws IOException {
+        try {
+            this.recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (ParseException pe) {
+            throw new IOException("The default JFR settings are invalid", pe);
+        }
+        recording.enable(ALLOCATION_SAMPLE).with("throttle", "1000/s");
+        recording.enable(HEAP_SUMMARY);
+        recording.setName("soak");
+        recording.setToDisk(true);
+        recording.setDestination(destination);
+        this.destination = destination;
+
+        this.harnessThreadId = -1;
+        this.clientAllocatedBytes = 0;
+        this.serverAllocatedBytes = 0;
+        this.allocatedBytesByClass = new HashMap<>();
+        this.gcCount = 0;
+        this.firstHeapAfterGc = -1;
+        this.lastHeapAfterGc = -1;
+        this.peakHeapAfterGc = -1;
+    }
+
+    /**
+     * Starts recording.
+     */
+    void start() {
+        harnessThreadId = Thread.currentThread().getId();
+        recording.start();
+    }
+
+    /**
+     * Stops recording, writes the recording to its destination, & summarizes it.
+     *
+     * @throws IOException If the recording can't be written or read back
+     */
+    void stop() throws IOException {
+        recording.stop();
+        recording.close();
+        try (RecordingFile file = new RecordingFile(destination)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                if (name.equals(ALLOCATION_SAMPLE)) {
+                    recordAllocation(event);
+                } else if (name.equals(HEAP_SUMMARY) && "After GC".equals(event.getString("when"))) {
+                    recordHeapAfterGc(event.getLong("heapUsed"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an allocation sample to the summary.
+     *
+     * @param event The {@code jdk.ObjectAllocationSample} event
+     */
+    private void recordAllocation(RecordedEvent event) {
+        long weight = event.getLong("weight");
+        RecordedThread thread = event.getThread();
+        String threadName = thread == null ? null : thread.getJavaName();
+        if (StubApiServer.isServerThread(threadName)) {
+            serverAllocatedBytes += weight;
+        } else if (thread != null && thread.getJavaThreadId() != harnessThreadId
+                && (threadName == null || !threadName.startsWith("JFR "))) {
+            clientAllocatedBytes += weight;
+            RecordedClass objectClass = event.getClass("objectClass");
+            allocatedBytesByClass.merge(objectClass == null ? "?" : objectClass.getName(), weight, Long::sum);
+        }
+    }
+
+    /**
+     * Adds the size of the heap after a garbage collection to the summary.
+     *
+     * @param heapUsed The bytes in use after the collection
+     */
+    private void recordHeapAfterGc(long heapUsed) {
+        gcCount++;
+        if (firstHeapAfterGc < 0) {
+            firstHeapAfterGc = heapUsed;
+        }
+        lastHeapAfterGc = heapUsed;
+        peakHeapAfterGc = Math.max(peakHeapAfterGc, heapUsed);
+    }
+
+    /**
+     * Returns the file the recording is written to.
+     *
+     * @return The file the recording is written to
+     */
+    Path getDestination() {
+        return destination;
+    }
+
+    /**
+     * Returns roughly how many bytes the client allocated while recording.
+     *
+     * @return The bytes allocated by the client
+     */
+    long getClientAllocatedBytes() {
+        return clientAllocatedBytes;
+    }
+
+    /**
+     * Returns roughly how many bytes the stub allocated while recording.
+     *
+     * @return The bytes allocated by the stub
+     */
+    long getServerAllocatedBytes() {
+        return serverAllocatedBytes;
+    }
+
+    /**
+     * Returns the classes the client allocated the most bytes of, most bytes first.
+     *
+     * @param limit The most classes to return
+     * @return The classes, with roughly how many bytes of them were allocated
+     */
+    List<Map.Entry<String, Long>> getTopAllocatedClasses(int limit) {
+        List<Map.Entry<String, Long>> classes = new ArrayList<>(allocatedBytesByClass.entrySet());
+        classes.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return classes.subList(0, Math.min(limit, classes.size()));
+    }
+
+    /**
+     * Returns how many garbage collections happened while recording.
+     *
+     * @return The amount of garbage collections
+     */
+    int getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * Returns the bytes in use after the first garbage collection while recording.
+     *
+     * @return The bytes in use, or {@code -1} if no garbage collection happened
+     */
+    long getFirstHeapAfterGc() {
+        return firstHeapAfterGc;
+    }
+
+    /**
+     * Returns the bytes in use after the last garbage collection while recording.
+     * Compared to {@link #getFirstHeapAfterGc()}, this shows whether the heap grew.
+     *
+     * @return The bytes in use, or {@code -1} if no garbage collection happened
+     */
+    long getLastHeapAfterGc() {
+        return lastHeapAfterGc;
+    }
+
+    /**
+     * Returns the most bytes in use after any garbage collection while recording.
+     *
+     * @return The bytes in use, or {@code -1} if no garbage collection happened
+     */
+    long getPeakHeapAfterGc() {
+        return peakHeapAfterGc;
+    }
+}
@@ -0,0 +1,217 @@
+package currencyexchanger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stub of the freecurrencyapi {@code /v1/latest} endpoint, that responds with its payloads in turn,
+ * optionally after a delay, & optionally failing a share of requests.
+ */
+class StubApiServer implements AutoCloseable {
+    private static final String THREAD_NAME_PREFIX = "StubApiServer-";
+    private static final String DISPATCHER_THREAD_NAME = "HTTP-Dispatcher";
+
+    private static final byte[] ERROR_PAYLOAD = "{\"message\":\"Stubbed failure\"}".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        // Small responses are otherwise held back by Nagle's algorithm, which skews latencies
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LongAdder requests;
+
+    /**
+     * Creates & starts the server on an ephemeral port on the loopback address.
+     *
+     * @param payloads The response bodies to send, one per request in turn
+     * @throws IOException              If the server can't be started
+     * @throws IllegalArgumentException If no payloads are specified
+     */
+    StubApiServer(byte[]... payloads) throws IOException {
+        this(new Builder(payloads));
+    }
+
+    /**
+     * Creates & starts the server on an ephemeral port on the loopback address.
+     *
+     * @param builder The builder to create the server from
+     * @throws IOException If the server can't be started
+     */
+    private StubApiServer(Builder builder) throws IOException {
+        byte[][] payloads = builder.payloads;
+        AtomicInteger nextPayload = new AtomicInteger();
+        long latencyMillis = builder.latency.toMillis();
+        double errorRate = builder.errorRate;
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.requests = new LongAdder();
+        server.createContext("/v1/latest", exchange -> {
+            requests.increment();
+            exchange.getRequestBody().readAllBytes();
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                respond(exchange, 500, ERROR_PAYLOAD);
+            } else {
+                respond(exchange, 200, payloads[Math.floorMod(nextPayload.getAndIncrement(), payloads.length)]);
+            }
+        });
+        if (latencyMillis > 0) {
+            // Delayed responses would otherwise hold up every other request on the dispatcher thread
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.setExecutor(executor);
+        } else {
+            this.executor = null;
+        }
+        server.start();
+    }
+
+    /**
+     * Sends a JSON response.
+     *
+     * @param exchange   The exchange to respond to
+     * @param statusCode The status code of the response
+     * @param body       The response body
+     * @throws IOException If the response can't be sent
+     */
+    private static void respond(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    /**
+     * Returns the base URL of the stub, for use in place of the freecurrencyapi base URL.
+     *
+     * @return The base URL of the stub, ending with a {@code /}
+     */
+    String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return String.format("http://%s:%s/", address.getHostString(), address.getPort());
+    }
+
+    /**
+     * Checks whether a thread is one the stub handles requests on,
+     * so the work of the stub can be told apart from the work of the client.
+     *
+     * @param threadName The name of the thread
+     * @return Whether the thread is one the stub handles requests on
+     */
+    static boolean isServerThread(String threadName) {
+        return threadName != null
+                && (threadName.startsWith(THREAD_NAME_PREFIX) || threadName.equals(DISPATCHER_THREAD_NAME));
+    }
+
+    /**
+     * Returns how many requests the stub has received.
+     *
+     * @return The amount of requests received
+     */
+    long getRequestCount() {
+        return requests.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link StubApiServer}.
+     */
+    static class Builder {
+        private final byte[][] payloads;
+        private Duration latency;
+        private double errorRate;
+
+        /**
+         * Creates the builder.
+         *
+         * @param payloads The response bodies to send, one per successful request in turn
+         * @throws IllegalArgumentException If no payloads are specified
+         */
+        Builder(byte[]... payloads) {
+            if (payloads.length == 0) {
+                throw new IllegalArgumentException("At least one payload is required");
+            }
+            this.payloads = payloads.clone();
+            this.latency = Duration.ZERO;
+            this.errorRate = 0;
+        }
+
+        /**
+         * Creates & starts the server.
+         *
+         * @return The created server
+         * @throws IOException If the server can't be started
+         */
+        StubApiServer build() throws IOException {
+            return new StubApiServer(this);
+        }
+
+        /**
+         * Sets how long the stub waits before responding to each request. If not set, it responds right away.
+         *
+         * @param latency How long to wait before responding, with millisecond precision
+         * @return The builder
+         * @throws IllegalArgumentException If {@code latency} is negative
+         */
+        Builder setLatency(Duration latency) {
+            if (latency.isNegative()) {
+                throw new IllegalArgumentException("The latency cannot be negative");
+            }
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Sets the share of requests to fail with a {@code 500 Internal Server Error}, picked at random.
+         * If not set, no requests fail.
+         *
+         * @param errorRate The share of requests to fail, from {@code 0} (none) to {@code 1} (all)
+         * @return The builder
+         * @throws IllegalArgumentException If {@code errorRate} is outside of {@code [0, 1]}
+         */
+        Builder setErrorRate(double errorRate) {
+            if (!(errorRate >= 0 && errorRate <= 1)) {
+                throw new IllegalArgumentException("The error rate must be between 0 & 1");
+            }
+            this.errorRate = errorRate;
+            return this;
+        }
+    }
+}
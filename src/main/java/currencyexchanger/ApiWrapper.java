@@ -1,20 +1,39 @@
 package currencyexchanger;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Wrapper class for making HTTP requests to <a href="https://freecurrencyapi.com/">https://freecurrencyapi.com/</a>
+ *
+ * @see RateSource#freecurrencyapi(String)
  */
-class ApiWrapper {
-    private static final String BASE_API_URL = "https://api.freecurrencyapi.com/";
+class ApiWrapper implements RateSource {
+    static final String BASE_API_URL = "https://api.freecurrencyapi.com/";
     private static final String LATEST_ENDPOINT = "v1/latest";
+    private static final String DEFAULT_BASE_CURRENCY = "USD";
 
+    private final List<String> coalescingKey;
     private final HtmlRequester latestRatesRequester;
+    private final RatesMetrics metrics;
+    private final RateLimits rateLimits;
+    private final Map<String, CachedRates> cachedRates;
 
     /**
      * Creates the wrapper
@@ -22,7 +41,93 @@ class ApiWrapper {
      * @param apiKey The API key to use when making requests
      */
     public ApiWrapper(String apiKey) {
-        latestRatesRequester = new HtmlRequester(BASE_API_URL + LATEST_ENDPOINT, Map.of("apikey", apiKey));
+        this(apiKey, BASE_API_URL);
+    }
+
+    /**
+     * Creates a wrapper that sends requests to an API other than freecurrencyapi,
+     * that has the same endpoints & response format.
+     *
+     * @param apiKey The API key to use when making requests
+     * @param baseApiUrl The base URL of the API, ending with a {@code /}
+     */
+    ApiWrapper(String apiKey, String baseApiUrl) {
+        this(apiKey, baseApiUrl, HtmlRequester.DEFAULT_CONNECT_TIMEOUT, HtmlRequester.DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Creates a wrapper with custom timeouts.
+     *
+     * @param apiKey The API key to use when making requests
+     * @param baseApiUrl The base URL of the API, ending with a {@code /}
+     * @param connectTimeout The maximum time to wait for a connection to the API to be established
+     * @param requestTimeout The maximum time to wait for a response, after sending a request
+     */
+    ApiWrapper(String apiKey, String baseApiUrl, Duration connectTimeout, Duration requestTimeout) {
+        this(apiKey, baseApiUrl, connectTimeout, requestTimeout, new RatesMetrics());
+    }
+
+    /**
+     * Creates a wrapper with custom timeouts, that records its requests into {@code metrics}.
+     *
+     * @param apiKey The API key to use when making requests
+     * @param baseApiUrl The base URL of the API, ending with a {@code /}
+     * @param connectTimeout The maximum time to wait for a connection to the API to be established
+     * @param requestTimeout The maximum time to wait for a response, after sending a request
+     * @param metrics The metrics to record request latencies, parse times & unchanged responses into
+     */
+    ApiWrapper(
+            String apiKey,
+            String baseApiUrl,
+            Duration connectTimeout,
+            Duration requestTimeout,
+            RatesMetrics metrics
+    ) {
+        this.coalescingKey = List.of(baseApiUrl, apiKey);
+        latestRatesRequester = new HtmlRequester(
+                baseApiUrl + LATEST_ENDPOINT,
+                Map.of("apikey", apiKey),
+                connectTimeout,
+                requestTimeout,
+                metrics.requestLatencyHistogram()
+        );
+        this.metrics = metrics;
+        rateLimits = new RateLimits();
+        cachedRates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the rate limits of the API, as reported by its latest responses.
+     *
+     * @return The rate limits of the API
+     */
+    RateLimits getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * Returns a key that's equal for every wrapper sending the same requests, to the same API with the same API key,
+     * so their requests can be merged without one API key being used on behalf of another.
+     *
+     * @return The key, which is only meaningful when compared to the keys of other wrappers
+     */
+    Object coalescingKey() {
+        return coalescingKey;
+    }
+
+    @Override
+    public CompletableFuture<RateTable> fetch(String baseCurrency, Collection<String> currencies) {
+        return requestRateTableAsync(baseCurrency, currencies);
+    }
+
+    @Override
+    public double remainingQuotaFraction() {
+        return rateLimits.remainingFraction();
+    }
+
+    @Override
+    public long retryAfterNanos(long nowNanos) {
+        return rateLimits.retryAfterNanos(nowNanos);
     }
 
     /**
@@ -89,33 +194,315 @@ class ApiWrapper {
             String baseCurrency,
             Collection<String> currencies
     ) throws RequestFailedException, IOException {
+        Map<String, Double> exchangeRates = new HashMap<>();
+        requestLatestRates(baseCurrency, currencies, exchangeRates::put);
+        return exchangeRates;
+    }
+
+    /**
+     * Makes a request for the latest exchange rates, & collects them into a {@link RateTable}.
+     *
+     * @param baseCurrency The base currency to get exchange rates for. If {@code null}, USD is used
+     * @param currencies All currencies to get the exchange rate to
+     * @return A table with the exchange rates for {@code baseCurrency} to all requested currencies
+     * @throws RequestFailedException If the API request fails
+     * @throws IOException If an {@link IOException} occurs when requesting
+     * @see #requestLatestRates(String, Collection, RatesSink)
+     * @see <a href=https://freecurrencyapi.com/docs/currency-list>All available currencies</a>
+     */
+    public RateTable requestRateTable(
+            String baseCurrency,
+            Collection<String> currencies
+    ) throws RequestFailedException, IOException {
+        RateTable.Builder rates = new RateTable.Builder(
+                CurrencyId.of(baseCurrency == null ? DEFAULT_BASE_CURRENCY : baseCurrency)
+        );
+        requestLatestRates(baseCurrency, currencies, rates::put);
+        return rates.build();
+    }
+
+    /**
+     * Makes a request for the latest exchange rates, & streams them into {@code sink} as they're parsed.
+     * The response body is parsed straight from the connection, without building a string or json tree first.
+     *
+     * @param baseCurrency The base currency to get exchange rates for
+     * @param currencies All currencies to get the exchange rate to
+     * @param sink Receives the exchange rate for {@code baseCurrency} to each currency in the response
+     * @throws RequestFailedException If the API request fails
+     * @throws IOException If an {@link IOException} occurs when requesting
+     * @see #requestLatestRates(String, Collection)
+     * @see <a href=https://freecurrencyapi.com/docs/currency-list>All available currencies</a>
+     */
+    public void requestLatestRates(
+            String baseCurrency,
+            Collection<String> currencies,
+            RatesSink sink
+    ) throws RequestFailedException, IOException {
+        RequestFailedException failure = latestRatesRequester.sendRequest(
+                HtmlRequester.RequestType.GET,
+                buildParameters(baseCurrency, currencies),
+                ratesReader(sink)
+        );
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Makes a request for the latest exchange rates as a map, without blocking the calling thread.
+     *
+     * @param baseCurrency The base currency to get exchange rates for
+     * @param currencies All currencies to get the exchange rate to
+     * @return A future that completes with a map containing the exchange rates for {@code baseCurrency}
+     *         to all requested currencies, or exceptionally with a {@link RequestFailedException}
+     *         or {@link IOException} if the request fails
+     * @see #requestLatestRates(String, Collection)
+     * @see #requestRateTableAsync(String, Collection)
+     */
+    public CompletableFuture<Map<String, Double>> requestLatestRatesAsync(
+            String baseCurrency,
+            Collection<String> currencies
+    ) {
+        Map<String, Double> exchangeRates = new HashMap<>();
+        return requestAsync(baseCurrency, currencies, exchangeRates::put).thenApply(done -> exchangeRates);
+    }
+
+    /**
+     * Makes a request for the latest exchange rates as a {@link RateTable}, without blocking the calling thread.
+     * <p>
+     * The request is conditional: if the same rates were requested before, the validators of that response are sent
+     * along, & if the API responds with {@code 304 Not Modified}, or with the exact same body as before,
+     * the previous table is returned as is, without parsing anything. Callers can tell that nothing changed
+     * by the returned table being the same instance as before.
+     *
+     * @param baseCurrency The base currency to get exchange rates for. If {@code null}, USD is used
+     * @param currencies All currencies to get the exchange rate to
+     * @return A future that completes with a table with the exchange rates for {@code baseCurrency}
+     *         to all requested currencies, or exceptionally with a {@link RequestFailedException}
+     *         or {@link IOException} if the request fails
+     * @see #requestRateTable(String, Collection)
+     */
+    public CompletableFuture<RateTable> requestRateTableAsync(String baseCurrency, Collection<String> currencies) {
+        Map<String, String> parameters = buildParameters(baseCurrency, currencies);
+        String cacheKey = parameters.getOrDefault("base_currency", "") + "/" + parameters.getOrDefault("currencies", "");
+        CachedRates cached = cachedRates.get(cacheKey);
+        AtomicReference<RateTable> result = new AtomicReference<>();
+        return latestRatesRequester.sendAsync(
+                HtmlRequester.RequestType.GET,
+                parameters,
+                cached == null ? null : cached.conditionalHeaders(),
+                (statusCode, statusMessage, headers, body) -> {
+                    rateLimits.update(headers);
+                    if (statusCode == 304 && cached != null) {
+                        metrics.recordNotModified();
+                        result.set(cached.rates);
+                        return null;
+                    }
+                    if (statusCode >= 300) {
+                        return failure(statusCode, statusMessage, body);
+                    }
+                    byte[] payload = body.readAllBytes();
+                    if (cached != null && Arrays.equals(payload, cached.payload)) {
+                        metrics.recordNotModified();
+                        result.set(cached.rates);
+                        return null;
+                    }
+                    RateTable.Builder rates = new RateTable.Builder(
+                            CurrencyId.of(baseCurrency == null ? DEFAULT_BASE_CURRENCY : baseCurrency)
+                    );
+                    long parseStart = System.nanoTime();
+                    RequestFailedException failure = parseRates(
+                            statusCode,
+                            statusMessage,
+                            new ByteArrayInputStream(payload),
+                            rates::put
+                    );
+                    metrics.recordParse(System.nanoTime() - parseStart);
+                    if (failure == null) {
+                        result.set(rates.build());
+                        cachedRates.put(cacheKey, new CachedRates(headers, payload, result.get()));
+                    }
+                    return failure;
+                }
+        ).thenCompose(failure -> failure == null
+                ? CompletableFuture.completedFuture(result.get())
+                : CompletableFuture.failedFuture(failure)
+        );
+    }
+
+    /**
+     * Makes an asynchronous request for the latest exchange rates, & passes them to {@code sink} once received.
+     *
+     * @param baseCurrency The base currency to get exchange rates for
+     * @param currencies All currencies to get the exchange rate to
+     * @param sink Receives the exchange rate for {@code baseCurrency} to each currency in the response
+     * @return A future that completes once all rates are passed to {@code sink}
+     */
+    private CompletableFuture<Void> requestAsync(
+            String baseCurrency,
+            Collection<String> currencies,
+            RatesSink sink
+    ) {
+        return latestRatesRequester.sendAsync(
+                HtmlRequester.RequestType.GET,
+                buildParameters(baseCurrency, currencies),
+                ratesReader(sink)
+        ).thenCompose(failure -> failure == null
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.failedFuture(failure)
+        );
+    }
+
+    /**
+     * Builds the request parameters for a latest rates request.
+     *
+     * @param baseCurrency The base currency to get exchange rates for, or {@code null} for the API default
+     * @param currencies All currencies to get the exchange rate to, or {@code null} for all currencies
+     * @return The request parameters
+     */
+    private static Map<String, String> buildParameters(String baseCurrency, Collection<String> currencies) {
         Map<String, String> parameters = new HashMap<>();
         if (baseCurrency != null) {
             parameters.put("base_currency", baseCurrency);
         }
         if (currencies != null && !currencies.isEmpty()) {
-            parameters.put("currencies", String.join(",", currencies));
+            // Sorted, so the same currencies always make the same URL
+            parameters.put("currencies", String.join(",", new TreeSet<>(currencies)));
         }
-        HtmlRequester.Response response = latestRatesRequester.sendRequest(HtmlRequester.RequestType.GET, parameters);
+        return parameters;
+    }
 
-        Map<String, Double> exchangeRates = new HashMap<>();
-        if (response.getStatusCode() < 300 && response.isJson()) {
-            JsonNode json = response.getJson();
-            if (json.has("data")) {
-                json = json.get("data");
+    /**
+     * Creates a body reader that parses a latest rates response into {@code sink}.
+     *
+     * @param sink Receives every parsed rate
+     * @return A body reader that produces {@code null} if the rates were parsed, or the failure to throw if not
+     */
+    private HtmlRequester.BodyReader<RequestFailedException> ratesReader(RatesSink sink) {
+        return (statusCode, statusMessage, headers, body) -> {
+            rateLimits.update(headers);
+            if (statusCode >= 300) {
+                return failure(statusCode, statusMessage, body);
+            }
+            long parseStart = System.nanoTime();
+            RequestFailedException failure = parseRates(statusCode, statusMessage, body, sink);
+            metrics.recordParse(System.nanoTime() - parseStart);
+            return failure;
+        };
+    }
+
+    /**
+     * Creates the failure for an unsuccessful response.
+     *
+     * @param statusCode The response status code
+     * @param statusMessage The response status message
+     * @param body The response body
+     * @return The failure to throw
+     * @throws IOException If an {@link IOException} occurs when reading the body
+     */
+    private static RequestFailedException failure(int statusCode, String statusMessage, InputStream body) throws IOException {
+        return new RequestFailedException(statusCode, statusMessage, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stream-parses a successful response body, & passes every rate in its {@code data} object to {@code sink}.
+     *
+     * @param statusCode The response status code
+     * @param statusMessage The response status message
+     * @param body The response body
+     * @param sink Receives every parsed rate
+     * @return {@code null} if the body was parsed, or the failure to throw if the body isn't a valid rates response,
+     *         including when any rate isn't a number
+     * @throws IOException If an {@link IOException} occurs when reading the body
+     */
+    static RequestFailedException parseRates(
+            int statusCode,
+            String statusMessage,
+            InputStream body,
+            RatesSink sink
+    ) throws IOException {
+        try (JsonParser parser = HtmlRequester.jsonFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new RequestFailedException(statusCode, statusMessage, "Response is not a json object");
             }
-            for (Iterator<String> it = json.fieldNames(); it.hasNext(); ) {
-                String currencyName = it.next();
-                exchangeRates.put(currencyName, json.get(currencyName).asDouble());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(fieldName) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String currencyName = parser.currentName();
+                        JsonToken rate = parser.nextToken();
+                        if (rate != JsonToken.VALUE_NUMBER_FLOAT && rate != JsonToken.VALUE_NUMBER_INT) {
+                            return new RequestFailedException(
+                                    statusCode,
+                                    statusMessage,
+                                    "Response has a rate for " + currencyName + " that is not a number"
+                            );
+                        }
+                        sink.accept(currencyName, parser.getDoubleValue());
+                    }
+                    return null;
+                }
+                parser.skipChildren();
             }
-        } else {
-            throw new RequestFailedException(
-                    response.getStatusCode(),
-                    response.getStatusMessage(),
-                    response.getRawData()
-            );
+        } catch (JsonProcessingException jpe) {
+            return new RequestFailedException(statusCode, statusMessage, "Response is not valid json: " + jpe.getOriginalMessage());
+        }
+        return new RequestFailedException(statusCode, statusMessage, "Response has no \"data\" object");
+    }
+
+    /**
+     * Receives exchange rates as they're parsed, without boxing them.
+     */
+    @FunctionalInterface
+    interface RatesSink {
+        /**
+         * Called once for every exchange rate in a response.
+         *
+         * @param currency The currency the rate is for
+         * @param rate The exchange rate from the base currency to {@code currency}
+         */
+        void accept(String currency, double rate);
+    }
+
+    /**
+     * The latest successfully parsed response to one request, for making the next identical request conditional.
+     */
+    private static class CachedRates {
+        private final String etag;
+        private final String lastModified;
+        private final byte[] payload;
+        private final RateTable rates;
+
+        /**
+         * Creates the cached response.
+         *
+         * @param headers The response headers
+         * @param payload The response body
+         * @param rates   The rates parsed from the response body
+         */
+        private CachedRates(HttpHeaders headers, byte[] payload, RateTable rates) {
+            this.etag = headers.firstValue("ETag").orElse(null);
+            this.lastModified = headers.firstValue("Last-Modified").orElse(null);
+            this.payload = payload;
+            this.rates = rates;
+        }
+
+        /**
+         * Returns the headers that make a request conditional on the response having changed since this one.
+         *
+         * @return The conditional request headers, or {@code null} if the response had no validators
+         */
+        private Map<String, String> conditionalHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+            return headers.isEmpty() ? null : headers;
         }
-        return exchangeRates;
     }
 
     /**
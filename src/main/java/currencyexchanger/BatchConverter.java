@@ -0,0 +1,295 @@
+package currencyexchanger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts large arrays of amounts using the rates in a {@link CrossRateMatrix}.
+ * <p>
+ * Batches of a single currency pair look up the rate once, & run a plain multiply loop that the JIT
+ * can vectorize. Batches above {@link #DEFAULT_PARALLEL_THRESHOLD} amounts are split into chunks,
+ * & converted in parallel on a {@link ForkJoinPool}.
+ */
+public class BatchConverter {
+    /**
+     * The default amount of amounts a batch must have before it's converted in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+    private final CrossRateMatrix matrix;
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+
+    /**
+     * Creates a converter that converts large batches in parallel on the common {@link ForkJoinPool}.
+     *
+     * @param matrix The rates to convert with
+     * @see #BatchConverter(CrossRateMatrix, ForkJoinPool, int)
+     */
+    public BatchConverter(CrossRateMatrix matrix) {
+        this(matrix, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Creates a converter.
+     *
+     * @param matrix            The rates to convert with
+     * @param pool              The pool to convert large batches on
+     * @param parallelThreshold The amount of amounts a batch must have before it's converted in parallel
+     * @throws IllegalArgumentException If {@code parallelThreshold} is less than {@code 1}
+     * @see #BatchConverter(CrossRateMatrix)
+     */
+    public BatchConverter(CrossRateMatrix matrix, ForkJoinPool pool, int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("The parallel threshold must be at least 1");
+        }
+        this.matrix = matrix;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Returns the rates this converter converts with.
+     *
+     * @return The rates this converter converts with
+     */
+    public CrossRateMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Converts every amount in a batch from one currency to another.
+     *
+     * @param amounts The amounts to convert
+     * @param from    The code of the currency all amounts are in
+     * @param to      The code of the currency to convert to
+     * @param out     The array to write the converted amounts to. Can be the same array as {@code amounts}
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code amounts},
+     *                                  or either currency isn't in the matrix
+     * @see #convert(double[], CurrencyId, CurrencyId, double[])
+     */
+    public void convert(double[] amounts, String from, String to, double[] out) {
+        CurrencyId fromCurrency = CurrencyId.find(from);
+        CurrencyId toCurrency = CurrencyId.find(to);
+        if (fromCurrency == null || toCurrency == null) {
+            throw new IllegalArgumentException(String.format("No exchange rate from %s to %s", from, to));
+        }
+        convert(amounts, fromCurrency, toCurrency, out);
+    }
+
+    /**
+     * Converts every amount in a batch from one currency to another.
+     *
+     * @param amounts The amounts to convert
+     * @param from    The currency all amounts are in
+     * @param to      The currency to convert to
+     * @param out     The array to write the converted amounts to. Can be the same array as {@code amounts}
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code amounts},
+     *                                  or either currency isn't in the matrix
+     * @see #convert(double[], String, String, double[])
+     */
+    public void convert(double[] amounts, CurrencyId from, CurrencyId to, double[] out) {
+        requireCapacity(amounts.length, out.length, "out");
+        double rate = matrix.rate(from, to);
+        if (Double.isNaN(rate)) {
+            throw new IllegalArgumentException(String.format("No exchange rate from %s to %s", from, to));
+        }
+        if (amounts.length < parallelThreshold) {
+            convertPair(amounts, rate, out, 0, amounts.length);
+        } else {
+            pool.invoke(new PairTask(amounts, rate, out, 0, amounts.length, parallelThreshold));
+        }
+    }
+
+    /**
+     * Converts a batch of amounts in mixed currencies. Each amount is converted between the currencies
+     * at the same position in {@code fromIndices} & {@code toIndices}. Amounts with a currency that isn't
+     * in the matrix are converted to {@code NaN}.
+     *
+     * @param amounts     The amounts to convert
+     * @param fromIndices The {@link CurrencyId#index() index} of the currency each amount is in
+     * @param toIndices   The {@link CurrencyId#index() index} of the currency to convert each amount to
+     * @param out         The array to write the converted amounts to. Can be the same array as {@code amounts}
+     * @throws IllegalArgumentException If any of the other arrays are shorter than {@code amounts}
+     */
+    public void convert(double[] amounts, int[] fromIndices, int[] toIndices, double[] out) {
+        requireCapacity(amounts.length, fromIndices.length, "fromIndices");
+        requireCapacity(amounts.length, toIndices.length, "toIndices");
+        requireCapacity(amounts.length, out.length, "out");
+        if (amounts.length < parallelThreshold) {
+            convertMixed(matrix, amounts, fromIndices, toIndices, out, 0, amounts.length);
+        } else {
+            pool.invoke(new MixedTask(matrix, amounts, fromIndices, toIndices, out, 0, amounts.length, parallelThreshold));
+        }
+    }
+
+    /**
+     * Checks that an array is long enough to hold a value for every amount.
+     *
+     * @param required The amount of values required
+     * @param length   The length of the array
+     * @param name     The name of the array, for the exception message
+     * @throws IllegalArgumentException If the array is too short
+     */
+    private static void requireCapacity(int required, int length, String name) {
+        if (length < required) {
+            throw new IllegalArgumentException(String.format(
+                    "%s has length %s, but %s amounts are being converted", name, length, required
+            ));
+        }
+    }
+
+    /**
+     * Converts a range of amounts with a single rate.
+     * Kept as a simple counted loop with no branches, so the JIT can vectorize it.
+     *
+     * @param amounts The amounts to convert
+     * @param rate    The rate to convert with
+     * @param out     The array to write the converted amounts to
+     * @param start   The first position to convert, inclusive
+     * @param end     The last position to convert, exclusive
+     */
+    private static void convertPair(double[] amounts, double rate, double[] out, int start, int end) {
+        for (int i = start; i < end; i++) {
+            out[i] = amounts[i] * rate;
+        }
+    }
+
+    /**
+     * Converts a range of amounts in mixed currencies.
+     *
+     * @param matrix      The rates to convert with
+     * @param amounts     The amounts to convert
+     * @param fromIndices The index of the currency each amount is in
+     * @param toIndices   The index of the currency to convert each amount to
+     * @param out         The array to write the converted amounts to
+     * @param start       The first position to convert, inclusive
+     * @param end         The last position to convert, exclusive
+     */
+    private static void convertMixed(
+            CrossRateMatrix matrix,
+            double[] amounts,
+            int[] fromIndices,
+            int[] toIndices,
+            double[] out,
+            int start,
+            int end
+    ) {
+        double[] rates = matrix.rawMatrix();
+        int size = matrix.size();
+        for (int i = start; i < end; i++) {
+            int fromPosition = matrix.positionOfIndex(fromIndices[i]);
+            int toPosition = matrix.positionOfIndex(toIndices[i]);
+            out[i] = fromPosition < 0 || toPosition < 0
+                    ? Double.NaN
+                    : amounts[i] * rates[fromPosition * size + toPosition];
+        }
+    }
+
+    /**
+     * Converts a range of a single-pair batch, splitting it in half until it's below the threshold.
+     */
+    private static class PairTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] amounts;
+        private final double rate;
+        private final double[] out;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        /**
+         * Creates the task.
+         *
+         * @param amounts   The amounts to convert
+         * @param rate      The rate to convert with
+         * @param out       The array to write the converted amounts to
+         * @param start     The first position to convert, inclusive
+         * @param end       The last position to convert, exclusive
+         * @param threshold The size a range must be below before it's converted directly
+         */
+        private PairTask(double[] amounts, double rate, double[] out, int start, int end, int threshold) {
+            this.amounts = amounts;
+            this.rate = rate;
+            this.out = out;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                convertPair(amounts, rate, out, start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(
+                        new PairTask(amounts, rate, out, start, middle, threshold),
+                        new PairTask(amounts, rate, out, middle, end, threshold)
+                );
+            }
+        }
+    }
+
+    /**
+     * Converts a range of a mixed-currency batch, splitting it in half until it's below the threshold.
+     */
+    private static class MixedTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CrossRateMatrix matrix;
+        private final double[] amounts;
+        private final int[] fromIndices;
+        private final int[] toIndices;
+        private final double[] out;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        /**
+         * Creates the task.
+         *
+         * @param matrix      The rates to convert with
+         * @param amounts     The amounts to convert
+         * @param fromIndices The index of the currency each amount is in
+         * @param toIndices   The index of the currency to convert each amount to
+         * @param out         The array to write the converted amounts to
+         * @param start       The first position to convert, inclusive
+         * @param end         The last position to convert, exclusive
+         * @param threshold   The size a range must be below before it's converted directly
+         */
+        private MixedTask(
+                CrossRateMatrix matrix,
+                double[] amounts,
+                int[] fromIndices,
+                int[] toIndices,
+                double[] out,
+                int start,
+                int end,
+                int threshold
+        ) {
+            this.matrix = matrix;
+            this.amounts = amounts;
+            this.fromIndices = fromIndices;
+            this.toIndices = toIndices;
+            this.out = out;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                convertMixed(matrix, amounts, fromIndices, toIndices, out, start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(
+                        new MixedTask(matrix, amounts, fromIndices, toIndices, out, start, middle, threshold),
+                        new MixedTask(matrix, amounts, fromIndices, toIndices, out, middle, end, threshold)
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package currencyexchanger;
+
+import java.util.Map;
+
+/**
+ * Listener that keeps a {@link CrossRateMatrix} up to date with the rates of a {@link RatesManager},
+ * so a single manager fetching one pivot base currency can convert between any pair of its currencies.
+ * <p>
+ * Every update builds a new matrix from the previous one, recomputing only the rows & columns
+ * of the rates that changed. The matrix is swapped in atomically, so it can be read from any thread.
+ */
+public class CrossRateEngine implements RatesUpdateListener {
+    private static final String DEFAULT_BASE_CURRENCY = "USD";
+
+    private final CurrencyId baseCurrency;
+    private volatile CrossRateMatrix matrix;
+
+    /**
+     * Creates the engine, for rates from USD. It has no rates until its first update.
+     */
+    public CrossRateEngine() {
+        this(DEFAULT_BASE_CURRENCY);
+    }
+
+    /**
+     * Creates the engine. It has no rates until its first update.
+     *
+     * @param baseCurrency The base currency of the manager the engine listens to,
+     *                     used for rates received as a map. If {@code null} or blank, USD is used
+     */
+    public CrossRateEngine(String baseCurrency) {
+        this.baseCurrency = CurrencyId.of(baseCurrency == null || baseCurrency.isBlank()
+                ? DEFAULT_BASE_CURRENCY
+                : baseCurrency
+        );
+        this.matrix = null;
+    }
+
+    /**
+     * Returns the current matrix.
+     *
+     * @return The current matrix, or {@code null} if the engine hasn't received any rates yet
+     */
+    public CrossRateMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Returns the current exchange rate between two currencies.
+     *
+     * @param from The code of the currency to convert from
+     * @param to   The code of the currency to convert to
+     * @return The exchange rate, or {@code NaN} if either currency is unknown or no rates have been received yet
+     */
+    public double rate(String from, String to) {
+        CrossRateMatrix current = matrix;
+        CurrencyId fromCurrency = CurrencyId.find(from);
+        CurrencyId toCurrency = CurrencyId.find(to);
+        return current == null || fromCurrency == null || toCurrency == null
+                ? Double.NaN
+                : current.rate(fromCurrency, toCurrency);
+    }
+
+    @Override
+    public void onUpdate(RateTable rates) {
+        CrossRateMatrix current = matrix;
+        matrix = current == null ? CrossRateMatrix.of(rates) : current.update(rates);
+    }
+
+    /**
+     * Updates the matrix with rates from the base currency the engine was created with.
+     * Rates from a {@link RatesManager} are received through {@link #onUpdate(RateTable)} instead,
+     * which carries its own base currency.
+     *
+     * @param rates The new rates received.
+     */
+    @Override
+    public void onUpdate(Map<String, Double> rates) {
+        RateTable.Builder table = new RateTable.Builder(baseCurrency);
+        rates.forEach((currencyCode, rate) -> {
+            if (rate != null) {
+                table.put(currencyCode, rate);
+            }
+        });
+        onUpdate(table.build());
+    }
+}
@@ -0,0 +1,278 @@
+package currencyexchanger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable N×N matrix of exchange rates between every pair of currencies, triangulated through
+ * the base currency of a single {@link RateTable}. The rates are precomputed into one flat {@code double[]},
+ * so converting between any two currencies is a constant-time array read.
+ * <p>
+ * Matrices are never modified after being built, & can be freely shared between threads.
+ *
+ * @see CrossRateEngine
+ */
+public final class CrossRateMatrix {
+    private final CurrencyId pivotCurrency;
+    private final CurrencyId[] currencies;
+    private final int[] positionsByIndex;
+    private final double[] pivotRates;
+    private final double[] matrix;
+
+    /**
+     * Creates the matrix.
+     *
+     * @param pivotCurrency    The currency all rates are triangulated through
+     * @param currencies       All currencies in the matrix, in matrix order
+     * @param positionsByIndex The matrix position of each currency, indexed by {@link CurrencyId#index()}.
+     *                         Positions are stored off by one, so {@code 0} means the currency isn't in the matrix
+     * @param pivotRates       The rate from the pivot currency to each currency, in matrix order
+     * @param matrix           The rates between all currencies, in row-major order
+     */
+    private CrossRateMatrix(
+            CurrencyId pivotCurrency,
+            CurrencyId[] currencies,
+            int[] positionsByIndex,
+            double[] pivotRates,
+            double[] matrix
+    ) {
+        this.pivotCurrency = pivotCurrency;
+        this.currencies = currencies;
+        this.positionsByIndex = positionsByIndex;
+        this.pivotRates = pivotRates;
+        this.matrix = matrix;
+    }
+
+    /**
+     * Builds a matrix from the rates in a table. The base currency of the table is used as the pivot currency.
+     *
+     * @param table The rates from the pivot currency to all other currencies
+     * @return The newly built matrix
+     */
+    public static CrossRateMatrix of(RateTable table) {
+        CurrencyId pivot = table.getBaseCurrency();
+        boolean hasPivot = table.contains(pivot);
+        int size = hasPivot ? table.size() : table.size() + 1;
+
+        CurrencyId[] currencies = new CurrencyId[size];
+        double[] rates = new double[size];
+        int[] positionsByIndex = new int[CurrencyId.registeredCount()];
+        int position = 0;
+        if (!hasPivot) {
+            currencies[position] = pivot;
+            rates[position] = 1;
+            positionsByIndex[pivot.index()] = ++position;
+        }
+        for (int i = 0; i < table.size(); i++) {
+            CurrencyId currency = table.currencyAt(i);
+            currencies[position] = currency;
+            rates[position] = table.rate(currency);
+            positionsByIndex[currency.index()] = ++position;
+        }
+
+        double[] matrix = new double[size * size];
+        for (int from = 0; from < size; from++) {
+            computeRow(matrix, rates, from);
+        }
+        return new CrossRateMatrix(pivot, currencies, positionsByIndex, rates, matrix);
+    }
+
+    /**
+     * Builds a matrix from updated rates. If the updated rates are for the same currencies as this matrix,
+     * only the rows & columns of the rates that changed are recomputed. Otherwise, the matrix is rebuilt.
+     * This matrix is left unchanged.
+     *
+     * @param table The updated rates from the pivot currency to all other currencies
+     * @return The updated matrix. If no rates changed, this is the same matrix
+     */
+    public CrossRateMatrix update(RateTable table) {
+        if (!hasSameCurrencies(table)) {
+            return of(table);
+        }
+
+        int size = currencies.length;
+        double[] rates = pivotRates.clone();
+        boolean[] changed = new boolean[size];
+        boolean anyChanged = false;
+        for (int position = 0; position < size; position++) {
+            // Only the pivot currency can be missing from the table
+            double rate = table.contains(currencies[position]) ? table.rate(currencies[position]) : 1;
+            if (Double.compare(rate, rates[position]) != 0) {
+                rates[position] = rate;
+                changed[position] = true;
+                anyChanged = true;
+            }
+        }
+        if (!anyChanged) {
+            return this;
+        }
+
+        double[] updated = matrix.clone();
+        for (int position = 0; position < size; position++) {
+            if (changed[position]) {
+                computeRow(updated, rates, position);
+                computeColumn(updated, rates, position);
+            }
+        }
+        return new CrossRateMatrix(pivotCurrency, currencies, positionsByIndex, rates, updated);
+    }
+
+    /**
+     * Checks whether a table has rates for exactly the currencies in this matrix, in the same order.
+     *
+     * @param table The table to check
+     * @return Whether the table has the same currencies as this matrix
+     */
+    private boolean hasSameCurrencies(RateTable table) {
+        if (table.getBaseCurrency() != pivotCurrency) {
+            return false;
+        }
+        int offset = table.contains(pivotCurrency) ? 0 : 1;
+        if (table.size() + offset != currencies.length) {
+            return false;
+        }
+        for (int i = 0; i < table.size(); i++) {
+            if (table.currencyAt(i) != currencies[i + offset]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes every rate from one currency.
+     *
+     * @param matrix The matrix to write the rates into
+     * @param rates  The pivot rates, in matrix order
+     * @param from   The matrix position of the currency to compute rates from
+     */
+    private static void computeRow(double[] matrix, double[] rates, int from) {
+        int size = rates.length;
+        int rowStart = from * size;
+        double fromRate = rates[from];
+        for (int to = 0; to < size; to++) {
+            matrix[rowStart + to] = rates[to] / fromRate;
+        }
+        matrix[rowStart + from] = 1;
+    }
+
+    /**
+     * Computes every rate to one currency.
+     *
+     * @param matrix The matrix to write the rates into
+     * @param rates  The pivot rates, in matrix order
+     * @param to     The matrix position of the currency to compute rates to
+     */
+    private static void computeColumn(double[] matrix, double[] rates, int to) {
+        int size = rates.length;
+        double toRate = rates[to];
+        for (int from = 0; from < size; from++) {
+            matrix[from * size + to] = toRate / rates[from];
+        }
+        matrix[to * size + to] = 1;
+    }
+
+    /**
+     * Returns the currency all rates are triangulated through.
+     *
+     * @return The pivot currency
+     */
+    public CurrencyId getPivotCurrency() {
+        return pivotCurrency;
+    }
+
+    /**
+     * Returns all currencies in this matrix, in matrix order.
+     *
+     * @return An unmodifiable list of all currencies in this matrix
+     */
+    public List<CurrencyId> getCurrencies() {
+        return Collections.unmodifiableList(Arrays.asList(currencies));
+    }
+
+    /**
+     * Returns the amount of currencies in this matrix. The matrix has this many rows & columns.
+     *
+     * @return The amount of currencies in this matrix
+     */
+    public int size() {
+        return currencies.length;
+    }
+
+    /**
+     * Returns the matrix position of a currency, for use with {@link #rateAt(int, int)}.
+     *
+     * @param currency The currency to get the position of
+     * @return The position of {@code currency}, or {@code -1} if it isn't in this matrix
+     */
+    public int positionOf(CurrencyId currency) {
+        int index = currency.index();
+        return index < positionsByIndex.length ? positionsByIndex[index] - 1 : -1;
+    }
+
+    /**
+     * Returns the matrix position of a currency, for use with {@link #rateAt(int, int)}.
+     *
+     * @param index The {@link CurrencyId#index() index} of the currency to get the position of
+     * @return The position of the currency, or {@code -1} if it isn't in this matrix
+     */
+    int positionOfIndex(int index) {
+        return index >= 0 && index < positionsByIndex.length ? positionsByIndex[index] - 1 : -1;
+    }
+
+    /**
+     * Returns the backing row-major array of this matrix, for bulk readers in this package.
+     * The array must never be modified.
+     *
+     * @return The backing array of this matrix
+     */
+    double[] rawMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Returns the exchange rate between the currencies at two matrix positions.
+     *
+     * @param fromPosition The matrix position of the currency to convert from
+     * @param toPosition   The matrix position of the currency to convert to
+     * @return The exchange rate
+     * @throws IndexOutOfBoundsException If either position is outside the matrix
+     */
+    public double rateAt(int fromPosition, int toPosition) {
+        int size = currencies.length;
+        if (fromPosition < 0 || fromPosition >= size || toPosition < 0 || toPosition >= size) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Position (%s, %s) is outside a matrix of size %s", fromPosition, toPosition, size
+            ));
+        }
+        return matrix[fromPosition * size + toPosition];
+    }
+
+    /**
+     * Returns the exchange rate between two currencies.
+     *
+     * @param from The currency to convert from
+     * @param to   The currency to convert to
+     * @return The exchange rate, or {@code NaN} if either currency isn't in this matrix
+     */
+    public double rate(CurrencyId from, CurrencyId to) {
+        int fromPosition = positionOf(from);
+        int toPosition = positionOf(to);
+        return fromPosition < 0 || toPosition < 0
+                ? Double.NaN
+                : matrix[fromPosition * currencies.length + toPosition];
+    }
+
+    /**
+     * Converts an amount between two currencies.
+     *
+     * @param amount The amount to convert
+     * @param from   The currency {@code amount} is in
+     * @param to     The currency to convert to
+     * @return The converted amount, or {@code NaN} if either currency isn't in this matrix
+     */
+    public double convert(double amount, CurrencyId from, CurrencyId to) {
+        return amount * rate(from, to);
+    }
+}
@@ -0,0 +1,127 @@
+package currencyexchanger;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned currency code. Every code is registered once, & gets a dense index that
+ * identifies it for the lifetime of the JVM. Indices start at 0 & have no gaps,
+ * so they can be used directly as array indices.
+ *
+ * @see RateTable
+ */
+public final class CurrencyId {
+    private static final Map<String, CurrencyId> BY_CODE = new ConcurrentHashMap<>();
+    private static final Object REGISTRATION_LOCK = new Object();
+    private static volatile CurrencyId[] byIndex = new CurrencyId[0];
+
+    private final String code;
+    private final int index;
+
+    /**
+     * Creates the currency ID. Only called when registering a new code.
+     *
+     * @param code  The currency code
+     * @param index The dense index of the currency
+     */
+    private CurrencyId(String code, int index) {
+        this.code = code;
+        this.index = index;
+    }
+
+    /**
+     * Returns the ID for a currency code, registering the code if it hasn't been seen before.
+     * Codes are case-insensitive.
+     *
+     * @param code The currency code
+     * @return The ID for the currency code
+     * @throws IllegalArgumentException If {@code code} is {@code null} or blank
+     */
+    public static CurrencyId of(String code) {
+        if (code == null) {
+            throw new IllegalArgumentException("A currency code cannot be null");
+        }
+        CurrencyId id = BY_CODE.get(code);
+        if (id != null) {
+            return id;
+        }
+        if (code.isBlank()) {
+            throw new IllegalArgumentException("A currency code cannot be blank");
+        }
+        String normalizedCode = code.trim().toUpperCase(Locale.ROOT);
+        synchronized (REGISTRATION_LOCK) {
+            id = BY_CODE.get(normalizedCode);
+            if (id == null) {
+                CurrencyId[] registered = byIndex;
+                id = new CurrencyId(normalizedCode, registered.length);
+                CurrencyId[] grown = Arrays.copyOf(registered, registered.length + 1);
+                grown[id.index] = id;
+                byIndex = grown;
+                BY_CODE.put(normalizedCode, id);
+            }
+            if (!normalizedCode.equals(code)) {
+                BY_CODE.putIfAbsent(code, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the ID for a currency code, without registering it.
+     *
+     * @param code The currency code
+     * @return The ID for the currency code, or {@code null} if the code has never been registered
+     */
+    public static CurrencyId find(String code) {
+        if (code == null) {
+            return null;
+        }
+        CurrencyId id = BY_CODE.get(code);
+        return id != null ? id : BY_CODE.get(code.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the ID with the specified index.
+     *
+     * @param index The index of the ID
+     * @return The ID with the specified index
+     * @throws IndexOutOfBoundsException If no currency has been registered with the index
+     */
+    public static CurrencyId byIndex(int index) {
+        return byIndex[index];
+    }
+
+    /**
+     * Returns the amount of currencies registered so far. All registered indices are below this.
+     *
+     * @return The amount of currencies registered so far
+     */
+    public static int registeredCount() {
+        return byIndex.length;
+    }
+
+    /**
+     * Returns the currency code.
+     *
+     * @return The currency code, in upper case
+     */
+    public String code() {
+        return code;
+    }
+
+    /**
+     * Returns the dense index of this currency.
+     *
+     * @return The dense index of this currency
+     */
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return code;
+    }
+}
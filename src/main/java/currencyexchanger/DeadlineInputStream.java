@@ -0,0 +1,129 @@
+package currencyexchanger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A response body that must be read within a deadline. {@link java.net.http.HttpRequest#timeout(Duration)} only
+ * covers receiving the response headers, so without this, a body that stalls would block its reader forever.
+ * <p>
+ * Once the deadline passes, the underlying stream is closed, which wakes up a blocked read,
+ * & every read from then on throws an {@link HttpTimeoutException}.
+ */
+class DeadlineInputStream extends FilterInputStream {
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final ScheduledFuture<?> expiry;
+
+    private volatile boolean expired;
+
+    /**
+     * Creates the stream. The deadline starts right away.
+     *
+     * @param in      The response body
+     * @param timeout How long the body may take to read
+     */
+    DeadlineInputStream(InputStream in, Duration timeout) {
+        super(in);
+        this.expired = false;
+        this.expiry = TIMER.schedule(this::expire, timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates the timer shared by all streams. Its thread is a daemon, & expiries are removed once cancelled,
+     * so bodies read in time leave nothing behind.
+     *
+     * @return The timer
+     */
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "HtmlRequester-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Marks the stream as expired, & closes the underlying stream to wake up any blocked read.
+     */
+    private void expire() {
+        expired = true;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // The stream is abandoned anyway
+        }
+    }
+
+    /**
+     * Throws if the deadline has passed.
+     *
+     * @param cause What the read failed with, or {@code null} if it didn't fail
+     * @throws HttpTimeoutException If the deadline has passed
+     */
+    private void checkExpiry(IOException cause) throws HttpTimeoutException {
+        if (expired) {
+            HttpTimeoutException timeout = new HttpTimeoutException("Timed out while reading the response body");
+            if (cause != null) {
+                timeout.initCause(cause);
+            }
+            throw timeout;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkExpiry(null);
+        int read;
+        try {
+            read = super.read();
+        } catch (IOException ioe) {
+            checkExpiry(ioe);
+            throw ioe;
+        }
+        checkExpiry(null);
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkExpiry(null);
+        int read;
+        try {
+            read = super.read(b, off, len);
+        } catch (IOException ioe) {
+            checkExpiry(ioe);
+            throw ioe;
+        }
+        checkExpiry(null);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkExpiry(null);
+        long skipped;
+        try {
+            skipped = super.skip(n);
+        } catch (IOException ioe) {
+            checkExpiry(ioe);
+            throw ioe;
+        }
+        checkExpiry(null);
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        expiry.cancel(false);
+        super.close();
+    }
+}
@@ -0,0 +1,144 @@
+package currencyexchanger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+/**
+ * Merges concurrent requests for the latest rates into as few upstream requests as possible.
+ * <p>
+ * While a request is in flight, any other request for the same base currency, & the same or fewer currencies,
+ * waits for the in-flight request instead of sending its own. Once the in-flight request completes,
+ * its result is fanned out to every waiter, trimmed down to the currencies each of them asked for.
+ * Requests through {@link ApiWrapper}s are merged if they go to the same API with the same API key,
+ * so no request is sent, or counted against a quota, on behalf of another key.
+ * Requests to any other {@link RateSource} are only merged with requests to that same source.
+ *
+ * @see #shared()
+ */
+class FetchCoordinator {
+    private static final String DEFAULT_BASE_CURRENCY = "USD";
+    private static final FetchCoordinator SHARED = new FetchCoordinator();
+
+    private final List<InFlight> inFlight;
+
+    /**
+     * Creates a coordinator that only merges requests made through itself.
+     *
+     * @see #shared()
+     */
+    FetchCoordinator() {
+        this.inFlight = new ArrayList<>();
+    }
+
+    /**
+     * Returns the process-wide coordinator.
+     *
+     * @return The process-wide coordinator
+     */
+    static FetchCoordinator shared() {
+        return SHARED;
+    }
+
+    /**
+     * Requests the latest rates from {@code source}, unless an in-flight request already covers them.
+     *
+     * @param source       The source to request the rates from, if a new request is needed
+     * @param baseCurrency The base currency to get exchange rates for. If {@code null}, USD is used
+     * @param currencies   All currencies to get the exchange rate to. If {@code null} or empty, all currencies are requested
+     * @return A future that completes with a table with the exchange rates for {@code baseCurrency}
+     *         to all requested currencies
+     */
+    CompletableFuture<RateTable> fetchAsync(
+            RateSource source,
+            String baseCurrency,
+            Collection<String> currencies
+    ) {
+        // Every wrapper around the same API with the same API key can share requests
+        Object sourceKey = source instanceof ApiWrapper api ? api.coalescingKey() : source;
+        String base = (baseCurrency == null ? DEFAULT_BASE_CURRENCY : baseCurrency).toUpperCase(Locale.ROOT);
+        Set<CurrencyId> requested = currencies == null || currencies.isEmpty()
+                ? null
+                : currencies.stream().map(CurrencyId::of).collect(Collectors.toUnmodifiableSet());
+
+        InFlight request;
+        synchronized (inFlight) {
+            for (InFlight existing : inFlight) {
+                if (existing.covers(sourceKey, base, requested)) {
+                    return requested == null || requested.equals(existing.currencies)
+                            ? existing.result
+                            : existing.result.thenApply(rates -> rates.subset(requested));
+                }
+            }
+            request = new InFlight(sourceKey, base, requested);
+            inFlight.add(request);
+        }
+
+        try {
+            source.fetch(baseCurrency, currencies).whenComplete((rates, failure) -> {
+                // Removed before completing, so waiters that request again right away send a new request
+                synchronized (inFlight) {
+                    inFlight.remove(request);
+                }
+                if (failure == null) {
+                    request.result.complete(rates);
+                } else {
+                    request.result.completeExceptionally(
+                            failure instanceof CompletionException && failure.getCause() != null
+                                    ? failure.getCause()
+                                    : failure
+                    );
+                }
+            });
+        } catch (RuntimeException re) {
+            synchronized (inFlight) {
+                inFlight.remove(request);
+            }
+            request.result.completeExceptionally(re);
+        }
+        return request.result;
+    }
+
+    /**
+     * An upstream request that's currently in flight.
+     */
+    private static class InFlight {
+        private final Object sourceKey;
+        private final String baseCurrency;
+        private final Set<CurrencyId> currencies;
+        private final CompletableFuture<RateTable> result;
+
+        /**
+         * Creates the in-flight request.
+         *
+         * @param sourceKey    Identifies the source the request was sent to
+         * @param baseCurrency The base currency requested, in upper case
+         * @param currencies   The currencies requested, or {@code null} if all currencies are requested
+         */
+        private InFlight(Object sourceKey, String baseCurrency, Set<CurrencyId> currencies) {
+            this.sourceKey = sourceKey;
+            this.baseCurrency = baseCurrency;
+            this.currencies = currencies;
+            this.result = new CompletableFuture<>();
+        }
+
+        /**
+         * Checks whether this request will receive every rate in another request.
+         *
+         * @param sourceKey    Identifies the source of the other request
+         * @param baseCurrency The base currency of the other request, in upper case
+         * @param currencies   The currencies of the other request, or {@code null} if it's for all currencies
+         * @return Whether this request will receive every rate in the other request
+         */
+        private boolean covers(Object sourceKey, String baseCurrency, Set<CurrencyId> currencies) {
+            return this.sourceKey.equals(sourceKey)
+                    && this.baseCurrency.equals(baseCurrency)
+                    && (this.currencies == null || currencies != null && this.currencies.containsAll(currencies));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link LeaderLock} backed by an exclusive lock on a file, on storage shared by every node of a fleet.
+ * <p>
+ * The operating system releases the lock when the leader's process dies, so another node takes over
+ * on its next attempt. Within one JVM, at most one {@link FileLeaderLock} per file holds the lock.
+ * Files are locked through one channel per file, kept open until the JVM exits, since closing any channel
+ * to a file releases every lock the JVM holds on it.
+ */
+public final class FileLeaderLock implements LeaderLock {
+    // Guarded by themselves
+    private static final Map<Path, FileChannel> CHANNELS = new HashMap<>();
+    private static final Map<Path, FileLeaderLock> HOLDERS = new HashMap<>();
+
+    private final Path file;
+
+    private FileLock lock;
+
+    /**
+     * Creates the lock. The file is created when the lock is first tried.
+     *
+     * @param file The file to lock, on storage shared by every node
+     */
+    public FileLeaderLock(Path file) {
+        this.file = file.toAbsolutePath().normalize();
+        this.lock = null;
+    }
+
+    @Override
+    public boolean tryAcquire() throws IOException {
+        synchronized (HOLDERS) {
+            FileLeaderLock holder = HOLDERS.get(file);
+            if (holder == this && lock.isValid()) {
+                return true;
+            }
+            if (holder != null && holder != this) {
+                return false;
+            }
+            HOLDERS.remove(file);
+            lock = null;
+
+            FileChannel channel;
+            synchronized (CHANNELS) {
+                channel = CHANNELS.get(file);
+                if (channel == null || !channel.isOpen()) {
+                    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    CHANNELS.put(file, channel);
+                }
+            }
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException ofle) {
+                lock = null;
+            }
+            if (lock == null) {
+                return false;
+            }
+            HOLDERS.put(file, this);
+            return true;
+        }
+    }
+
+    @Override
+    public void release() throws IOException {
+        synchronized (HOLDERS) {
+            if (HOLDERS.get(file) != this) {
+                return;
+            }
+            HOLDERS.remove(file);
+            FileLock held = lock;
+            lock = null;
+            if (held.isValid()) {
+                held.release();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileLeaderLock[" + file + "]";
+    }
+}
@@ -0,0 +1,393 @@
+package currencyexchanger;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Exact conversion of money amounts in minor units, such as cents, using fixed-point rates.
+ * <p>
+ * When built, every rate in a {@link RateTable} is fixed to {@value #RATE_SCALE} decimal places, as a {@code long}.
+ * The fixed rate between two currencies is the fixed rate to {@code to} divided by the fixed rate to {@code from},
+ * itself fixed to {@value #RATE_SCALE} decimal places with {@link RoundingMode#HALF_EVEN}, & available through
+ * {@link #scaledRate(CurrencyId, CurrencyId)}. Conversions multiply by that rate with exact 128-bit arithmetic,
+ * & round once, so the result is identical to doing the same calculation with {@link BigDecimal}:
+ * <pre>{@code
+ * BigDecimal.valueOf(amount)
+ *         .multiply(BigDecimal.valueOf(scaledRate(from, to)))
+ *         .scaleByPowerOfTen(minorUnits(to) - minorUnits(from) - RATE_SCALE)
+ *         .setScale(0, roundingMode)
+ * }</pre>
+ * Conversions never allocate.
+ * <p>
+ * The minor units of each currency are taken from ISO 4217, through {@link Currency#getDefaultFractionDigits()},
+ * & default to 2 for currencies ISO 4217 doesn't know. They can be overridden through the {@link Builder}.
+ *
+ * @see RateTable#fixedPoint()
+ */
+public final class FixedPointRates {
+    /**
+     * The amount of decimal places rates are fixed to.
+     */
+    public static final int RATE_SCALE = 12;
+
+    /**
+     * The most minor units a currency can have.
+     */
+    public static final int MAX_MINOR_UNITS = 6;
+
+    private static final int DEFAULT_MINOR_UNITS = 2;
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final CurrencyId baseCurrency;
+    private final long[] scaledRates;
+    private final int[] minorUnits;
+
+    /**
+     * Creates the rates.
+     *
+     * @param baseCurrency The base currency of the rates
+     * @param scaledRates  The fixed rates from the base currency, indexed by {@link CurrencyId#index()}.
+     *                     Missing rates are {@code 0}
+     * @param minorUnits   The minor units of each currency, indexed by {@link CurrencyId#index()}
+     */
+    private FixedPointRates(CurrencyId baseCurrency, long[] scaledRates, int[] minorUnits) {
+        this.baseCurrency = baseCurrency;
+        this.scaledRates = scaledRates;
+        this.minorUnits = minorUnits;
+    }
+
+    /**
+     * Fixes the rates in a table, using ISO 4217 minor units.
+     *
+     * @param rates The rates to fix
+     * @return The fixed rates
+     * @see Builder
+     */
+    public static FixedPointRates of(RateTable rates) {
+        return new Builder(rates).build();
+    }
+
+    /**
+     * Returns the base currency of the rates.
+     *
+     * @return The base currency of the rates
+     */
+    public CurrencyId getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    /**
+     * Returns whether amounts can be converted to & from a currency.
+     *
+     * @param currency The currency to check
+     * @return Whether there's a fixed rate for {@code currency}
+     */
+    public boolean contains(CurrencyId currency) {
+        return currency.index() < scaledRates.length && scaledRates[currency.index()] != 0;
+    }
+
+    /**
+     * Returns the amount of minor units of a currency, which is the power of ten its amounts are scaled by.
+     * For example, USD has 2, as amounts are in cents, & JPY has 0.
+     *
+     * @param currency The currency
+     * @return The amount of minor units of {@code currency}
+     * @throws IllegalArgumentException If there's no fixed rate for {@code currency}
+     */
+    public int minorUnits(CurrencyId currency) {
+        requireRate(currency);
+        return minorUnits[currency.index()];
+    }
+
+    /**
+     * Returns the fixed rate between two currencies, scaled by 10<sup>{@value #RATE_SCALE}</sup>.
+     *
+     * @param from The currency to convert from
+     * @param to   The currency to convert to
+     * @return The fixed rate from {@code from} to {@code to}, scaled by 10<sup>{@value #RATE_SCALE}</sup>
+     * @throws IllegalArgumentException If there's no fixed rate for either currency
+     * @throws ArithmeticException If the rate between the currencies is too large to fix
+     */
+    public long scaledRate(CurrencyId from, CurrencyId to) {
+        long fromRate = requireRate(from);
+        long toRate = requireRate(to);
+        if (fromRate == toRate) {
+            return POWERS_OF_TEN[RATE_SCALE];
+        }
+        long scale = POWERS_OF_TEN[RATE_SCALE];
+        return divideAndRound(Math.multiplyHigh(toRate, scale), toRate * scale, fromRate, false, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Converts an amount between two currencies.
+     *
+     * @param amount       The amount to convert, in minor units of {@code from}
+     * @param from         The currency to convert from
+     * @param to           The currency to convert to
+     * @param roundingMode How to round the converted amount to whole minor units of {@code to}
+     * @return The converted amount, in minor units of {@code to}
+     * @throws IllegalArgumentException If there's no fixed rate for either currency
+     * @throws ArithmeticException If the converted amount doesn't fit in a {@code long},
+     *                             or {@code roundingMode} is {@link RoundingMode#UNNECESSARY} & rounding is necessary
+     */
+    public long convert(long amount, CurrencyId from, CurrencyId to, RoundingMode roundingMode) {
+        long rate = scaledRate(from, to);
+        if (amount == Long.MIN_VALUE) {
+            throw new ArithmeticException("Amount is out of range");
+        }
+        boolean negative = amount < 0;
+        long magnitude = Math.abs(amount);
+        int exponent = RATE_SCALE + minorUnits[from.index()] - minorUnits[to.index()];
+        return divideAndRound(
+                Math.multiplyHigh(magnitude, rate),
+                magnitude * rate,
+                POWERS_OF_TEN[exponent],
+                negative,
+                roundingMode
+        );
+    }
+
+    /**
+     * Converts an amount between two currencies.
+     * Prefer {@link #convert(long, CurrencyId, CurrencyId, RoundingMode)} on hot paths,
+     * as this has to look up the currency codes.
+     *
+     * @param amount       The amount to convert, in minor units of {@code from}
+     * @param from         The code of the currency to convert from
+     * @param to           The code of the currency to convert to
+     * @param roundingMode How to round the converted amount to whole minor units of {@code to}
+     * @return The converted amount, in minor units of {@code to}
+     * @throws IllegalArgumentException If there's no fixed rate for either currency
+     * @throws ArithmeticException If the converted amount doesn't fit in a {@code long},
+     *                             or {@code roundingMode} is {@link RoundingMode#UNNECESSARY} & rounding is necessary
+     */
+    public long convert(long amount, String from, String to, RoundingMode roundingMode) {
+        return convert(amount, requireCurrency(from), requireCurrency(to), roundingMode);
+    }
+
+    /**
+     * Returns the fixed rate from the base currency to a currency.
+     *
+     * @param currency The currency
+     * @return The fixed rate, scaled by 10<sup>{@value #RATE_SCALE}</sup>
+     * @throws IllegalArgumentException If there's no fixed rate for {@code currency}
+     */
+    private long requireRate(CurrencyId currency) {
+        int index = currency.index();
+        long rate = index < scaledRates.length ? scaledRates[index] : 0;
+        if (rate == 0) {
+            throw new IllegalArgumentException("No fixed rate for " + currency);
+        }
+        return rate;
+    }
+
+    /**
+     * Looks up a currency by its code.
+     *
+     * @param code The code of the currency
+     * @return The currency
+     * @throws IllegalArgumentException If the currency is unknown
+     */
+    private static CurrencyId requireCurrency(String code) {
+        CurrencyId currency = CurrencyId.find(code);
+        if (currency == null) {
+            throw new IllegalArgumentException("No fixed rate for " + code);
+        }
+        return currency;
+    }
+
+    /**
+     * Divides an unsigned 128-bit dividend by a positive divisor, & rounds the quotient to a whole number.
+     *
+     * @param high         The high 64 bits of the dividend
+     * @param low          The low 64 bits of the dividend
+     * @param divisor      The divisor, greater than {@code 0}
+     * @param negative     Whether the result is negative, for rounding modes that depend on the sign
+     * @param roundingMode How to round the quotient
+     * @return The rounded quotient, negated if {@code negative}
+     * @throws ArithmeticException If the quotient doesn't fit in a {@code long},
+     *                             or {@code roundingMode} is {@link RoundingMode#UNNECESSARY} & rounding is necessary
+     */
+    private static long divideAndRound(long high, long low, long divisor, boolean negative, RoundingMode roundingMode) {
+        if (Long.compareUnsigned(high, divisor) >= 0) {
+            throw new ArithmeticException("Result is out of range");
+        }
+        long quotient = divideUnsigned(high, low, divisor);
+        long remainder = low - quotient * divisor;
+        if (quotient < 0) {
+            throw new ArithmeticException("Result is out of range");
+        }
+
+        boolean increment;
+        if (remainder == 0) {
+            increment = false;
+        } else {
+            int half = Long.compareUnsigned(remainder << 1, divisor);
+            increment = switch (roundingMode) {
+                case UP -> true;
+                case DOWN -> false;
+                case CEILING -> !negative;
+                case FLOOR -> negative;
+                case HALF_UP -> half >= 0;
+                case HALF_DOWN -> half > 0;
+                case HALF_EVEN -> half > 0 || half == 0 && (quotient & 1) == 1;
+                case UNNECESSARY -> throw new ArithmeticException("Rounding necessary");
+            };
+        }
+        if (increment) {
+            quotient++;
+            if (quotient < 0) {
+                throw new ArithmeticException("Result is out of range");
+            }
+        }
+        return negative ? -quotient : quotient;
+    }
+
+    /**
+     * Divides an unsigned 128-bit dividend by an unsigned 64-bit divisor, using two 32-bit digit steps
+     * of long division, as described in Hacker's Delight, section 9-4.
+     *
+     * @param high    The high 64 bits of the dividend, less than {@code divisor} when compared unsigned
+     * @param low     The low 64 bits of the dividend
+     * @param divisor The divisor, not {@code 0}
+     * @return The unsigned 64-bit quotient, rounded down
+     */
+    private static long divideUnsigned(long high, long low, long divisor) {
+        final long base = 1L << 32;
+        int shift = Long.numberOfLeadingZeros(divisor);
+        long normalizedDivisor = divisor << shift;
+        long divisorHigh = normalizedDivisor >>> 32;
+        long divisorLow = normalizedDivisor & 0xFFFFFFFFL;
+
+        long dividendHigh = shift == 0 ? high : high << shift | low >>> (64 - shift);
+        long normalizedLow = low << shift;
+        long dividendLow1 = normalizedLow >>> 32;
+        long dividendLow0 = normalizedLow & 0xFFFFFFFFL;
+
+        long quotientHigh = Long.divideUnsigned(dividendHigh, divisorHigh);
+        long remainderEstimate = dividendHigh - quotientHigh * divisorHigh;
+        while (Long.compareUnsigned(quotientHigh, base) >= 0
+                || Long.compareUnsigned(quotientHigh * divisorLow, base * remainderEstimate + dividendLow1) > 0) {
+            quotientHigh--;
+            remainderEstimate += divisorHigh;
+            if (Long.compareUnsigned(remainderEstimate, base) >= 0) {
+                break;
+            }
+        }
+
+        long partial = dividendHigh * base + dividendLow1 - quotientHigh * normalizedDivisor;
+        long quotientLow = Long.divideUnsigned(partial, divisorHigh);
+        remainderEstimate = partial - quotientLow * divisorHigh;
+        while (Long.compareUnsigned(quotientLow, base) >= 0
+                || Long.compareUnsigned(quotientLow * divisorLow, base * remainderEstimate + dividendLow0) > 0) {
+            quotientLow--;
+            remainderEstimate += divisorHigh;
+            if (Long.compareUnsigned(remainderEstimate, base) >= 0) {
+                break;
+            }
+        }
+        return quotientHigh * base + quotientLow;
+    }
+
+    /**
+     * Returns the ISO 4217 minor units of a currency.
+     *
+     * @param code The code of the currency
+     * @return The ISO 4217 minor units of the currency, or 2 if ISO 4217 doesn't know it
+     */
+    private static int isoMinorUnits(String code) {
+        try {
+            int digits = Currency.getInstance(code).getDefaultFractionDigits();
+            return digits < 0 ? DEFAULT_MINOR_UNITS : digits;
+        } catch (IllegalArgumentException iae) {
+            return DEFAULT_MINOR_UNITS;
+        }
+    }
+
+    /**
+     * Builder for {@link FixedPointRates}.
+     */
+    public static class Builder {
+        private final RateTable rates;
+        private final Map<CurrencyId, Integer> minorUnits;
+
+        /**
+         * Creates the builder.
+         *
+         * @param rates The rates to fix
+         */
+        public Builder(RateTable rates) {
+            this.rates = rates;
+            this.minorUnits = new HashMap<>();
+        }
+
+        /**
+         * Sets the amount of minor units of a currency, overriding its ISO 4217 minor units.
+         *
+         * @param currencyCode The code of the currency
+         * @param minorUnits   The amount of minor units, from {@code 0} up to {@value #MAX_MINOR_UNITS}
+         * @return The builder
+         * @throws IllegalArgumentException If {@code minorUnits} is out of range
+         */
+        public Builder setMinorUnits(String currencyCode, int minorUnits) {
+            if (minorUnits < 0 || minorUnits > MAX_MINOR_UNITS) {
+                throw new IllegalArgumentException("Minor units must be from 0 up to " + MAX_MINOR_UNITS);
+            }
+            this.minorUnits.put(CurrencyId.of(currencyCode), minorUnits);
+            return this;
+        }
+
+        /**
+         * Builds the {@link FixedPointRates}. Rates that aren't positive, or are too large to fix, are left out.
+         *
+         * @return The newly built {@link FixedPointRates}
+         */
+        public FixedPointRates build() {
+            CurrencyId base = rates.getBaseCurrency();
+            int length = base.index() + 1;
+            for (int i = 0; i < rates.size(); i++) {
+                length = Math.max(length, rates.currencyAt(i).index() + 1);
+            }
+            long[] scaledRates = new long[length];
+            int[] units = new int[length];
+
+            scaledRates[base.index()] = POWERS_OF_TEN[RATE_SCALE];
+            units[base.index()] = minorUnitsOf(base);
+            for (int i = 0; i < rates.size(); i++) {
+                CurrencyId currency = rates.currencyAt(i);
+                double rate = rates.rate(currency);
+                if (currency.equals(base) || !(rate > 0) || Double.isInfinite(rate)) {
+                    continue;
+                }
+                BigDecimal scaled = BigDecimal.valueOf(rate).movePointRight(RATE_SCALE).setScale(0, RoundingMode.HALF_EVEN);
+                if (scaled.signum() > 0 && scaled.toBigInteger().bitLength() < Long.SIZE) {
+                    scaledRates[currency.index()] = scaled.longValue();
+                    units[currency.index()] = minorUnitsOf(currency);
+                }
+            }
+            return new FixedPointRates(base, scaledRates, units);
+        }
+
+        /**
+         * Returns the minor units to use for a currency.
+         *
+         * @param currency The currency
+         * @return The overridden minor units of the currency, or its ISO 4217 minor units if not overridden
+         */
+        private int minorUnitsOf(CurrencyId currency) {
+            Integer overridden = minorUnits.get(currency);
+            return overridden != null ? overridden : isoMinorUnits(currency.code().toUpperCase(Locale.ROOT));
+        }
+    }
+}
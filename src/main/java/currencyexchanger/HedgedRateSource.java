@@ -0,0 +1,182 @@
+package currencyexchanger;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RateSource} that cuts tail latency by sending hedged requests to a second source.
+ * <p>
+ * Every fetch goes to the primary source first. If the primary hasn't answered within the latency budget,
+ * the same fetch is sent to the secondary source as well, & whichever answers first is used.
+ * If the primary fails before the budget is up, the secondary is asked straight away.
+ * A fetch only fails if both sources fail.
+ */
+public final class HedgedRateSource implements RateSource {
+    private final RateSource primary;
+    private final RateSource secondary;
+    private final long latencyBudgetNanos;
+    private final Executor hedgeTimer;
+    private final LongAdder hedges;
+    private final LongAdder secondaryWins;
+
+    /**
+     * Creates the source.
+     *
+     * @param primary       The source to send every fetch to
+     * @param secondary     The source to send fetches to when the primary is slow, or fails
+     * @param latencyBudget How long to wait for the primary, before sending the fetch to the secondary as well
+     * @throws IllegalArgumentException If {@code latencyBudget} is negative
+     */
+    public HedgedRateSource(RateSource primary, RateSource secondary, Duration latencyBudget) {
+        if (latencyBudget.isNegative()) {
+            throw new IllegalArgumentException("The latency budget cannot be negative");
+        }
+        this.primary = primary;
+        this.secondary = secondary;
+        this.latencyBudgetNanos = latencyBudget.toNanos();
+        this.hedgeTimer = CompletableFuture.delayedExecutor(latencyBudgetNanos, TimeUnit.NANOSECONDS);
+        this.hedges = new LongAdder();
+        this.secondaryWins = new LongAdder();
+    }
+
+    /**
+     * Returns how many fetches have been sent to the secondary source, because the primary was slow or failed.
+     *
+     * @return The amount of fetches sent to the secondary source
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * Returns how many fetches were answered by the secondary source.
+     *
+     * @return The amount of fetches answered by the secondary source
+     */
+    public long getSecondaryWinCount() {
+        return secondaryWins.sum();
+    }
+
+    @Override
+    public CompletableFuture<RateTable> fetch(String baseCurrency, Collection<String> currencies) {
+        HedgedFetch fetch = new HedgedFetch(baseCurrency, currencies);
+        fetch.send(primary, false);
+        if (!fetch.result.isDone()) {
+            hedgeTimer.execute(fetch::hedge);
+        }
+        return fetch.result;
+    }
+
+    /**
+     * Returns the quota left of the most depleted source, as either of them may be asked.
+     *
+     * @return How much of the quota is left, from {@code 0} (nothing) to {@code 1} (everything)
+     */
+    @Override
+    public double remainingQuotaFraction() {
+        return Math.min(primary.remainingQuotaFraction(), secondary.remainingQuotaFraction());
+    }
+
+    /**
+     * Returns how long until either source accepts requests again.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The time left to wait, in nanoseconds, or {@code 0} if there's no need to wait
+     */
+    @Override
+    public long retryAfterNanos(long nowNanos) {
+        return Math.min(primary.retryAfterNanos(nowNanos), secondary.retryAfterNanos(nowNanos));
+    }
+
+    /**
+     * A single fetch, sent to the primary source, & possibly the secondary source.
+     */
+    private class HedgedFetch {
+        private final String baseCurrency;
+        private final Collection<String> currencies;
+        private final CompletableFuture<RateTable> result;
+        private final AtomicBoolean hedged;
+        private final AtomicInteger failures;
+
+        private volatile Throwable firstFailure;
+
+        /**
+         * Creates the fetch.
+         *
+         * @param baseCurrency The base currency to get exchange rates for
+         * @param currencies   All currencies to get the exchange rate to
+         */
+        private HedgedFetch(String baseCurrency, Collection<String> currencies) {
+            this.baseCurrency = baseCurrency;
+            this.currencies = currencies;
+            this.result = new CompletableFuture<>();
+            this.hedged = new AtomicBoolean(false);
+            this.failures = new AtomicInteger();
+
+            this.firstFailure = null;
+        }
+
+        /**
+         * Sends the fetch to the secondary source, unless it's already answered or been sent there.
+         */
+        private void hedge() {
+            if (!result.isDone() && hedged.compareAndSet(false, true)) {
+                hedges.increment();
+                send(secondary, true);
+            }
+        }
+
+        /**
+         * Sends the fetch to a source, & completes the result with its answer if it's the first one.
+         *
+         * @param source      The source to send the fetch to
+         * @param isSecondary Whether {@code source} is the secondary source
+         */
+        private void send(RateSource source, boolean isSecondary) {
+            CompletableFuture<RateTable> answer;
+            try {
+                answer = source.fetch(baseCurrency, currencies);
+            } catch (RuntimeException re) {
+                answer = CompletableFuture.failedFuture(re);
+            }
+            answer.whenComplete((rates, failure) -> {
+                if (failure == null) {
+                    if (result.complete(rates) && isSecondary) {
+                        secondaryWins.increment();
+                    }
+                } else {
+                    failed(failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause()
+                            : failure
+                    );
+                }
+            });
+        }
+
+        /**
+         * Handles a source failing. The secondary source is asked right away if the primary failed first,
+         * & the result fails once both sources have.
+         *
+         * @param failure The cause of the failure
+         */
+        private void failed(Throwable failure) {
+            if (failures.incrementAndGet() == 1) {
+                firstFailure = failure;
+                hedge();
+            } else {
+                Throwable first = firstFailure;
+                if (first != null && first != failure) {
+                    first.addSuppressed(failure);
+                }
+                result.completeExceptionally(first != null ? first : failure);
+            }
+        }
+    }
+}
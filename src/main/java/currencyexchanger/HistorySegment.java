@@ -0,0 +1,714 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only segment of a {@link RatesHistory}, either memory-mapped from a segment file,
+ * or viewed from a {@link Writer} that is still appending to it, & the codec for writing one.
+ * <p>
+ * Segments are columnar: one column of fetch times, & one column of rates per currency.
+ * Fetch times are stored as zigzag varints of their delta-of-delta, & rates are XOR-encoded against
+ * the previous rate in the same column, so unchanged & slowly moving rates take only a few bits.
+ * The layout is (all values big-endian):
+ * <pre>
+ * int    magic, "HIST"
+ * short  format version
+ * short  reserved, always 0
+ * int    amount of rows
+ * int    amount of currency columns, c
+ * long   earliest fetch time, milliseconds since the epoch
+ * long   latest fetch time, milliseconds since the epoch
+ * code   currencies[c]
+ * column fetch times
+ * column rates[c]
+ * </pre>
+ * where each {@code code} is one unsigned length byte followed by that many ASCII bytes,
+ * so codes are at most {@value #MAX_CODE_LENGTH} characters long,
+ * & each {@code column} is an int byte length followed by that many encoded bytes.
+ * Missing rates are stored as {@code NaN}.
+ * <p>
+ * Reading never copies a column. Cursors decode values straight from the mapped file, or from the writer.
+ */
+final class HistorySegment {
+    private static final int MAGIC = 0x48495354;
+    private static final short VERSION = 1;
+
+    /**
+     * The longest currency code a segment can hold.
+     */
+    static final int MAX_CODE_LENGTH = 255;
+
+    private final Path file;
+    private final int rowCount;
+    private final long minTime;
+    private final long maxTime;
+    private final CurrencyId[] currencies;
+    private final ByteBuffer timesBuffer;
+    private final int timesOffset;
+    private final ByteBuffer[] columnBuffers;
+    private final int[] columnOffsets;
+
+    /**
+     * Creates the segment view.
+     *
+     * @param file          The segment file
+     * @param rowCount      The amount of rows in the segment
+     * @param minTime       The earliest fetch time in the segment, in epoch milliseconds
+     * @param maxTime       The latest fetch time in the segment, in epoch milliseconds
+     * @param currencies    The currency of each column
+     * @param timesBuffer   The buffer holding the encoded fetch times
+     * @param timesOffset   The offset of the first encoded fetch time
+     * @param columnBuffers The buffer holding each encoded rate column
+     * @param columnOffsets The offset of the first encoded rate of each column
+     */
+    private HistorySegment(
+            Path file,
+            int rowCount,
+            long minTime,
+            long maxTime,
+            CurrencyId[] currencies,
+            ByteBuffer timesBuffer,
+            int timesOffset,
+            ByteBuffer[] columnBuffers,
+            int[] columnOffsets
+    ) {
+        this.file = file;
+        this.rowCount = rowCount;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.currencies = currencies;
+        this.timesBuffer = timesBuffer;
+        this.timesOffset = timesOffset;
+        this.columnBuffers = columnBuffers;
+        this.columnOffsets = columnOffsets;
+    }
+
+    /**
+     * Maps a segment file, & reads its header.
+     *
+     * @param file The segment file
+     * @return The segment
+     * @throws IOException If the file can't be read, or isn't a valid segment
+     */
+    static HistorySegment open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                throw new IOException("History segment has an unknown format: " + file);
+            }
+            buffer.getShort();
+            int rowCount = buffer.getInt();
+            int columnCount = buffer.getInt();
+            long minTime = buffer.getLong();
+            long maxTime = buffer.getLong();
+            CurrencyId[] currencies = new CurrencyId[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                byte[] code = new byte[Byte.toUnsignedInt(buffer.get())];
+                buffer.get(code);
+                currencies[i] = CurrencyId.of(new String(code, StandardCharsets.US_ASCII));
+            }
+            int timesOffset = buffer.position() + Integer.BYTES;
+            int offset = timesOffset + buffer.getInt(buffer.position());
+            ByteBuffer[] columnBuffers = new ByteBuffer[columnCount];
+            int[] columnOffsets = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columnBuffers[i] = buffer;
+                columnOffsets[i] = offset + Integer.BYTES;
+                offset = columnOffsets[i] + buffer.getInt(offset);
+            }
+            if (offset != buffer.limit()) {
+                throw new IOException("History segment is truncated: " + file);
+            }
+            return new HistorySegment(
+                    file,
+                    rowCount,
+                    minTime,
+                    maxTime,
+                    currencies,
+                    buffer,
+                    timesOffset,
+                    columnBuffers,
+                    columnOffsets
+            );
+        } catch (RuntimeException re) {
+            throw new IOException("History segment is corrupt: " + file, re);
+        }
+    }
+
+    /**
+     * Returns the segment file.
+     *
+     * @return The segment file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the amount of rows in this segment.
+     *
+     * @return The amount of rows in this segment
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the earliest fetch time in this segment.
+     *
+     * @return The earliest fetch time in this segment, in epoch milliseconds
+     */
+    long getMinTime() {
+        return minTime;
+    }
+
+    /**
+     * Returns the latest fetch time in this segment.
+     *
+     * @return The latest fetch time in this segment, in epoch milliseconds
+     */
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Returns the currency of each column.
+     *
+     * @return The currency of each column
+     */
+    List<CurrencyId> getCurrencies() {
+        return Arrays.asList(currencies);
+    }
+
+    /**
+     * Returns the column of a currency.
+     *
+     * @param currency The currency to find the column of
+     * @return The column of {@code currency}, or {@code -1} if this segment has no column for it
+     */
+    int columnOf(CurrencyId currency) {
+        for (int i = 0; i < currencies.length; i++) {
+            if (currencies[i] == currency) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a cursor over the fetch times of this segment.
+     *
+     * @return A cursor positioned before the first row
+     */
+    TimeCursor times() {
+        return new TimeCursor(timesBuffer, timesOffset);
+    }
+
+    /**
+     * Creates a cursor over the rates in a column of this segment.
+     *
+     * @param column The column to read
+     * @return A cursor positioned before the first row
+     */
+    RateCursor rates(int column) {
+        return new RateCursor(new BitReader(columnBuffers[column], columnOffsets[column]));
+    }
+
+    /**
+     * Decodes fetch times one row at a time.
+     */
+    static final class TimeCursor {
+        private final ByteBuffer buffer;
+        private int position;
+        private long time;
+        private long delta;
+        private boolean started;
+
+        /**
+         * Creates the cursor.
+         *
+         * @param buffer   The buffer holding the encoded times
+         * @param position The offset of the first encoded time
+         */
+        private TimeCursor(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+            this.time = 0;
+            this.delta = 0;
+            this.started = false;
+        }
+
+        /**
+         * Decodes the fetch time of the next row.
+         *
+         * @return The fetch time of the next row, in epoch milliseconds
+         */
+        long next() {
+            long value = readVarLong();
+            if (!started) {
+                time = value;
+                started = true;
+            } else {
+                delta += value;
+                time += delta;
+            }
+            return time;
+        }
+
+        /**
+         * Reads a zigzag-encoded varint.
+         *
+         * @return The decoded value
+         */
+        private long readVarLong() {
+            long raw = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                raw |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+    }
+
+    /**
+     * Decodes XOR-encoded rates one row at a time.
+     */
+    static final class RateCursor {
+        private final BitReader bits;
+        private long previous;
+        private int leading;
+        private int trailing;
+        private boolean started;
+
+        /**
+         * Creates the cursor.
+         *
+         * @param bits The reader positioned at the first encoded rate
+         */
+        private RateCursor(BitReader bits) {
+            this.bits = bits;
+            this.previous = 0;
+            this.leading = 0;
+            this.trailing = 0;
+            this.started = false;
+        }
+
+        /**
+         * Decodes the rate of the next row.
+         *
+         * @return The rate of the next row, or {@code NaN} if the row has no rate for this column's currency
+         */
+        double next() {
+            if (!started) {
+                started = true;
+                previous = bits.read(64);
+            } else if (bits.read(1) != 0) {
+                if (bits.read(1) != 0) {
+                    leading = (int) bits.read(5);
+                    int significant = (int) bits.read(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                previous ^= bits.read(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    /**
+     * Encodes a segment one row at a time. The state of every encoder is kept between rows,
+     * so appending a row only encodes that row, however many rows came before it.
+     * <p>
+     * Rows are appended from one thread at a time, but {@link #view(Path) views} of the rows appended so far
+     * can be read from any thread, as appending never changes the bytes of rows already appended.
+     */
+    static final class Writer {
+        private final ByteWriter times;
+        private final List<CurrencyId> currencies;
+        private final Map<CurrencyId, Integer> columns;
+        private final List<BitWriter> columnBits;
+        private final List<XorEncoder> encoders;
+        private int rowCount;
+        private long minTime;
+        private long maxTime;
+        private long previousDelta;
+
+        /**
+         * Creates the writer, without any rows or columns.
+         */
+        Writer() {
+            this.times = new ByteWriter();
+            this.currencies = new ArrayList<>();
+            this.columns = new HashMap<>();
+            this.columnBits = new ArrayList<>();
+            this.encoders = new ArrayList<>();
+            this.rowCount = 0;
+            this.minTime = 0;
+            this.maxTime = 0;
+            this.previousDelta = 0;
+        }
+
+        /**
+         * Returns the amount of rows appended.
+         *
+         * @return The amount of rows appended
+         */
+        int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns the amount of currency columns.
+         *
+         * @return The amount of currency columns
+         */
+        int getColumnCount() {
+            return currencies.size();
+        }
+
+        /**
+         * Returns the column of a currency.
+         *
+         * @param currency The currency to find the column of
+         * @return The column of {@code currency}, or {@code -1} if there is no column for it yet
+         */
+        int columnOf(CurrencyId currency) {
+            Integer column = columns.get(currency);
+            return column == null ? -1 : column;
+        }
+
+        /**
+         * Adds a column for a currency. The rows appended so far have no rate for it.
+         *
+         * @param currency The currency to add a column for
+         * @return The new column
+         * @throws IllegalArgumentException If the code of {@code currency} is longer than
+         *                                  {@value #MAX_CODE_LENGTH} characters
+         */
+        int addColumn(CurrencyId currency) {
+            if (currency.code().length() > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("The currency code " + currency.code() + " is too long for a segment");
+            }
+            BitWriter bits = new BitWriter();
+            XorEncoder encoder = new XorEncoder();
+            for (int row = 0; row < rowCount; row++) {
+                encoder.encode(bits, Double.NaN);
+            }
+            columns.put(currency, currencies.size());
+            currencies.add(currency);
+            columnBits.add(bits);
+            encoders.add(encoder);
+            return currencies.size() - 1;
+        }
+
+        /**
+         * Appends a row.
+         *
+         * @param time  The fetch time of the row, in epoch milliseconds, no earlier than the previous row
+         * @param rates The rate in each column. Missing rates are {@code NaN}
+         * @throws IllegalArgumentException If there isn't exactly one rate for each column
+         */
+        void append(long time, double[] rates) {
+            if (rates.length != currencies.size()) {
+                throw new IllegalArgumentException("Expected " + currencies.size() + " rates, but got " + rates.length);
+            }
+            if (rowCount == 0) {
+                times.writeVarLong(time);
+                minTime = time;
+            } else {
+                long delta = time - maxTime;
+                times.writeVarLong(delta - previousDelta);
+                previousDelta = delta;
+            }
+            maxTime = time;
+            for (int column = 0; column < rates.length; column++) {
+                encoders.get(column).encode(columnBits.get(column), rates[column]);
+            }
+            rowCount++;
+        }
+
+        /**
+         * Creates a read-only view of the rows appended so far, backed by this writer.
+         *
+         * @param file The segment file the rows will be written to
+         * @return The view
+         */
+        HistorySegment view(Path file) {
+            ByteBuffer[] columnBuffers = new ByteBuffer[currencies.size()];
+            for (int i = 0; i < columnBuffers.length; i++) {
+                columnBuffers[i] = columnBits.get(i).buffer();
+            }
+            return new HistorySegment(
+                    file,
+                    rowCount,
+                    minTime,
+                    maxTime,
+                    currencies.toArray(new CurrencyId[0]),
+                    times.buffer(),
+                    0,
+                    columnBuffers,
+                    new int[columnBuffers.length]
+            );
+        }
+
+        /**
+         * Encodes the rows appended so far into a segment file.
+         *
+         * @return The encoded segment file
+         */
+        byte[] encode() {
+            int size = 4 + 2 + 2 + 4 + 4 + 8 + 8 + Integer.BYTES + times.size();
+            for (int i = 0; i < currencies.size(); i++) {
+                size += 1 + currencies.get(i).code().length() + Integer.BYTES + columnBits.get(i).size();
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) 0)
+                    .putInt(rowCount)
+                    .putInt(currencies.size())
+                    .putLong(minTime)
+                    .putLong(maxTime);
+            for (CurrencyId currency : currencies) {
+                byte[] code = currency.code().getBytes(StandardCharsets.US_ASCII);
+                buffer.put((byte) code.length).put(code);
+            }
+            buffer.putInt(times.size()).put(times.bytes, 0, times.size());
+            for (BitWriter bits : columnBits) {
+                buffer.putInt(bits.size()).put(bits.bytes, 0, bits.size());
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Gorilla-style XOR encoder for one column of rates.
+     */
+    private static final class XorEncoder {
+        private long previous;
+        private int leading;
+        private int trailing;
+        private boolean started;
+
+        /**
+         * Creates the encoder.
+         */
+        private XorEncoder() {
+            this.previous = 0;
+            this.leading = -1;
+            this.trailing = 0;
+            this.started = false;
+        }
+
+        /**
+         * Encodes the next rate in the column.
+         *
+         * @param bits The writer to write the encoded rate to
+         * @param rate The rate to encode
+         */
+        private void encode(BitWriter bits, double rate) {
+            long value = Double.doubleToRawLongBits(rate);
+            if (!started) {
+                started = true;
+                bits.write(value, 64);
+                previous = value;
+                return;
+            }
+            long xor = value ^ previous;
+            previous = value;
+            if (xor == 0) {
+                bits.write(0, 1);
+                return;
+            }
+            int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                bits.write(0b10, 2);
+                bits.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                int significant = 64 - newLeading - newTrailing;
+                bits.write(0b11, 2);
+                bits.write(newLeading, 5);
+                bits.write(significant - 1, 6);
+                bits.write(xor >>> newTrailing, significant);
+                leading = newLeading;
+                trailing = newTrailing;
+            }
+        }
+    }
+
+    /**
+     * Writes values bit by bit, most significant bit first.
+     */
+    private static final class BitWriter {
+        private byte[] bytes;
+        private long bitPosition;
+        private ByteBuffer buffer;
+
+        /**
+         * Creates the writer.
+         */
+        private BitWriter() {
+            this.bytes = new byte[64];
+            this.bitPosition = 0;
+            this.buffer = null;
+        }
+
+        /**
+         * Writes the lowest bits of a value.
+         *
+         * @param value The value to write the lowest bits of
+         * @param count The amount of bits to write, from {@code 0} to {@code 64}
+         */
+        private void write(long value, int count) {
+            while (count > 0) {
+                int index = (int) (bitPosition >>> 3);
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (int) (bitPosition & 7);
+                int taken = Math.min(free, count);
+                int chunk = (int) (value >>> (count - taken)) & ((1 << taken) - 1);
+                bytes[index] |= (byte) (chunk << (free - taken));
+                bitPosition += taken;
+                count -= taken;
+            }
+        }
+
+        /**
+         * Returns the amount of bytes written to, counting a partly written last byte.
+         *
+         * @return The amount of bytes written to
+         */
+        private int size() {
+            return (int) ((bitPosition + 7) >>> 3);
+        }
+
+        /**
+         * Returns a buffer over the written bits. The buffer keeps seeing the bits written so far
+         * even once the writer grows, though not the bits written after that.
+         *
+         * @return A buffer over the written bits
+         */
+        private ByteBuffer buffer() {
+            if (buffer == null || buffer.array() != bytes) {
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads values bit by bit, most significant bit first, straight from a buffer.
+     */
+    private static final class BitReader {
+        private final ByteBuffer buffer;
+        private final int start;
+        private long bitPosition;
+
+        /**
+         * Creates the reader.
+         *
+         * @param buffer The buffer to read from
+         * @param start  The offset of the first byte to read
+         */
+        private BitReader(ByteBuffer buffer, int start) {
+            this.buffer = buffer;
+            this.start = start;
+            this.bitPosition = 0;
+        }
+
+        /**
+         * Reads bits into the lowest bits of a value.
+         *
+         * @param count The amount of bits to read, from {@code 0} to {@code 64}
+         * @return The read bits
+         */
+        private long read(int count) {
+            long value = 0;
+            while (count > 0) {
+                int current = buffer.get(start + (int) (bitPosition >>> 3)) & 0xFF;
+                int available = 8 - (int) (bitPosition & 7);
+                int taken = Math.min(available, count);
+                value = (value << taken) | ((current >>> (available - taken)) & ((1 << taken) - 1));
+                bitPosition += taken;
+                count -= taken;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Writes zigzag-encoded varints into a growable byte array.
+     */
+    private static final class ByteWriter {
+        private byte[] bytes;
+        private int size;
+        private ByteBuffer buffer;
+
+        /**
+         * Creates the writer.
+         */
+        private ByteWriter() {
+            this.bytes = new byte[64];
+            this.size = 0;
+            this.buffer = null;
+        }
+
+        /**
+         * Writes a value as a zigzag-encoded varint.
+         *
+         * @param value The value to write
+         */
+        private void writeVarLong(long value) {
+            long raw = (value << 1) ^ (value >> 63);
+            do {
+                if (size == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                byte b = (byte) (raw & 0x7F);
+                raw >>>= 7;
+                bytes[size++] = raw == 0 ? b : (byte) (b | 0x80);
+            } while (raw != 0);
+        }
+
+        /**
+         * Returns the amount of bytes written.
+         *
+         * @return The amount of bytes written
+         */
+        private int size() {
+            return size;
+        }
+
+        /**
+         * Returns a buffer over the written bytes. The buffer keeps seeing the bytes written so far
+         * even once the writer grows, though not the bytes written after that.
+         *
+         * @return A buffer over the written bytes
+         */
+        private ByteBuffer buffer() {
+            if (buffer == null || buffer.array() != bytes) {
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            return buffer;
+        }
+    }
+}
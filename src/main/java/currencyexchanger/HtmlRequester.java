@@ -1,18 +1,30 @@
 package currencyexchanger;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 /**
  * A generic class to simplify the process of sending HTML requests to an API.
@@ -20,8 +32,37 @@ import java.util.logging.Logger;
 class HtmlRequester {
     private static final Logger LOGGER = Logger.getLogger(HtmlRequester.class.getName());
 
+    /**
+     * Shared mapper for all responses. {@link ObjectMapper} is thread-safe once configured,
+     * & its {@link JsonFactory} recycles parser buffers, so there's no reason to create one per response.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Clients shared by all requesters, by connect timeout. Each client keeps its connections alive
+     * between requests, so requesters with the same connect timeout reuse each other's connections.
+     */
+    private static final Map<Duration, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Reads the bodies of asynchronous requests as they arrive. Reading blocks until the body is received,
+     * so it's kept off the threads of the clients, which deliver the body, & off the threads of callers.
+     */
+    private static final AtomicInteger BODY_READER_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService BODY_READER_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "HtmlRequester-body-reader-" + BODY_READER_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final String endpointUrl;
     private final Map<String, String> headers;
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final LatencyHistogram requestLatency;
 
     /**
      * Creates a requester object that can send HTML requests to the provided {@code url} endpoint.
@@ -41,8 +82,56 @@ class HtmlRequester {
      * @see #HtmlRequester(String)
      */
     public HtmlRequester(String endpointUrl, Map<String, String> headers) {
+        this(endpointUrl, headers, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Creates a requester object that can send HTML requests to the provided {@code url} endpoint,
+     * with the specified headers & timeouts.
+     *
+     * @param endpointUrl    The endpoint URL to send requests to
+     * @param headers        Any headers that should be included in requests sent by this requester
+     * @param connectTimeout The maximum time to wait for a connection to be established
+     * @param requestTimeout The maximum time to wait for a response, after sending a request
+     * @see #HtmlRequester(String, Map)
+     */
+    public HtmlRequester(
+            String endpointUrl,
+            Map<String, String> headers,
+            Duration connectTimeout,
+            Duration requestTimeout
+    ) {
+        this(endpointUrl, headers, connectTimeout, requestTimeout, new LatencyHistogram());
+    }
+
+    /**
+     * Creates a requester object that can send HTML requests to the provided {@code url} endpoint,
+     * with the specified headers & timeouts, & records the latency of every request.
+     *
+     * @param endpointUrl    The endpoint URL to send requests to
+     * @param headers        Any headers that should be included in requests sent by this requester
+     * @param connectTimeout The maximum time to wait for a connection to be established
+     * @param requestTimeout The maximum time to wait for a response, after sending a request
+     * @param requestLatency The histogram to record request latencies into
+     * @see #HtmlRequester(String, Map, Duration, Duration)
+     */
+    HtmlRequester(
+            String endpointUrl,
+            Map<String, String> headers,
+            Duration connectTimeout,
+            Duration requestTimeout,
+            LatencyHistogram requestLatency
+    ) {
         this.endpointUrl = endpointUrl + "?";
         this.headers = headers;
+        this.client = CLIENTS.computeIfAbsent(connectTimeout, timeout -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .build()
+        );
+        this.requestTimeout = requestTimeout;
+        this.requestLatency = requestLatency;
     }
 
     /**
@@ -78,42 +167,259 @@ class HtmlRequester {
      * @return The response from the request
      * @throws IOException If an {@link IOException} occurs when requesting
      * @see #sendRequest(RequestType)
+     * @see #sendRequest(RequestType, Map, BodyReader)
      */
     public Response sendRequest(RequestType type, Map<String, String> parameters) throws IOException {
-        URL url = new URL(parameters == null || parameters.isEmpty()
-                ? endpointUrl
-                : endpointUrl + stringifyParameters(parameters)
+        return sendRequest(type, parameters, (statusCode, statusMessage, headers, body) ->
+                Response.read(statusCode, statusMessage, body)
         );
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod(type.string());
-        con.setConnectTimeout(5000);
-        con.setReadTimeout(5000);
-        if (headers != null) {
-            headers.forEach(con::setRequestProperty);
-        }
+    }
 
-        //Request is sent here
-        con.connect();
-
-        int statusCode = con.getResponseCode();
-        String logMessage = String.format("Request returned with status %s %s", statusCode, con.getResponseMessage());
-        InputStreamReader responseReader;
-        if (statusCode < 300) {
-            LOGGER.log(Level.INFO, logMessage);
-            responseReader = new InputStreamReader(con.getInputStream());
-        } else {
-            LOGGER.log(Level.WARNING, logMessage);
-            responseReader = new InputStreamReader(con.getErrorStream());
+    /**
+     * Sends an HTML request to this endpoint, & lets {@code bodyReader} consume the response body straight
+     * from the connection. Nothing is buffered by the requester itself.
+     *
+     * @param type       The type of request to send
+     * @param parameters The parameters to include in the request
+     * @param bodyReader Reads the response body into the result
+     * @param <T>        The type of result produced by {@code bodyReader}
+     * @return The result produced by {@code bodyReader}
+     * @throws IOException If an {@link IOException} occurs when requesting or reading the response
+     * @see #sendRequest(RequestType, Map)
+     */
+    public <T> T sendRequest(
+            RequestType type,
+            Map<String, String> parameters,
+            BodyReader<T> bodyReader
+    ) throws IOException {
+        return sendRequest(type, parameters, null, bodyReader);
+    }
+
+    /**
+     * Sends an HTML request to this endpoint with extra headers for this request only, such as
+     * conditional request headers, & lets {@code bodyReader} consume the response body straight
+     * from the connection. Nothing is buffered by the requester itself.
+     * The body must be read within the request timeout, counted from when the response headers arrive.
+     *
+     * @param type           The type of request to send
+     * @param parameters     The parameters to include in the request
+     * @param requestHeaders Headers to include in this request, on top of the headers of this requester
+     * @param bodyReader     Reads the response body into the result
+     * @param <T>            The type of result produced by {@code bodyReader}
+     * @return The result produced by {@code bodyReader}
+     * @throws IOException If an {@link IOException} occurs when requesting or reading the response
+     * @see #sendRequest(RequestType, Map, BodyReader)
+     */
+    public <T> T sendRequest(
+            RequestType type,
+            Map<String, String> parameters,
+            Map<String, String> requestHeaders,
+            BodyReader<T> bodyReader
+    ) throws IOException {
+        HttpResponse<InputStream> response;
+        long start = System.nanoTime();
+        try {
+            response = client.send(
+                    buildRequest(type, parameters, requestHeaders),
+                    HttpResponse.BodyHandlers.ofInputStream()
+            );
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
         }
+        requestLatency.record(System.nanoTime() - start);
+        logStatus(response.statusCode());
+        try (InputStream body = new DeadlineInputStream(response.body(), requestTimeout);
+             InputStream in = decode(body, response)) {
+            return bodyReader.read(response.statusCode(), statusMessage(response.statusCode()), response.headers(), in);
+        }
+    }
+
+    /**
+     * Sends an HTML request to this endpoint, without blocking the calling thread.
+     *
+     * @param type       The type of request to send
+     * @param parameters The parameters to include in the request
+     * @return A future that completes with the response from the request
+     * @see #sendAsync(RequestType, Map, BodyReader)
+     */
+    public CompletableFuture<Response> sendAsync(RequestType type, Map<String, String> parameters) {
+        return sendAsync(type, parameters, (statusCode, statusMessage, headers, body) ->
+                Response.read(statusCode, statusMessage, body)
+        );
+    }
+
+    /**
+     * Sends an HTML request to this endpoint, without blocking the calling thread.
+     * The body is streamed to {@code bodyReader} as it arrives, on a thread of the requester,
+     * & must be read within the request timeout, counted from when the response headers arrive.
+     *
+     * @param type       The type of request to send
+     * @param parameters The parameters to include in the request
+     * @param bodyReader Reads the response body into the result
+     * @param <T>        The type of result produced by {@code bodyReader}
+     * @return A future that completes with the result produced by {@code bodyReader}, or exceptionally
+     *         with an {@link IOException} if requesting or reading the response fails
+     * @see #sendRequest(RequestType, Map, BodyReader)
+     */
+    public <T> CompletableFuture<T> sendAsync(
+            RequestType type,
+            Map<String, String> parameters,
+            BodyReader<T> bodyReader
+    ) {
+        return sendAsync(type, parameters, null, bodyReader);
+    }
 
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader in = new BufferedReader(responseReader)) {
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
+    /**
+     * Sends an HTML request to this endpoint with extra headers for this request only, such as
+     * conditional request headers, without blocking the calling thread.
+     * The body is streamed to {@code bodyReader} as it arrives, on a thread of the requester,
+     * & must be read within the request timeout, counted from when the response headers arrive.
+     *
+     * @param type           The type of request to send
+     * @param parameters     The parameters to include in the request
+     * @param requestHeaders Headers to include in this request, on top of the headers of this requester
+     * @param bodyReader     Reads the response body into the result
+     * @param <T>            The type of result produced by {@code bodyReader}
+     * @return A future that completes with the result produced by {@code bodyReader}, or exceptionally
+     *         with an {@link IOException} if requesting or reading the response fails
+     * @see #sendAsync(RequestType, Map, BodyReader)
+     */
+    public <T> CompletableFuture<T> sendAsync(
+            RequestType type,
+            Map<String, String> parameters,
+            Map<String, String> requestHeaders,
+            BodyReader<T> bodyReader
+    ) {
+        HttpRequest request;
+        try {
+            request = buildRequest(type, parameters, requestHeaders);
+        } catch (IllegalArgumentException iae) {
+            return CompletableFuture.failedFuture(new IOException("Invalid request URL", iae));
+        }
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenApplyAsync(response -> {
+            requestLatency.record(System.nanoTime() - start);
+            logStatus(response.statusCode());
+            try (InputStream body = new DeadlineInputStream(response.body(), requestTimeout);
+                 InputStream in = decode(body, response)) {
+                return bodyReader.read(response.statusCode(), statusMessage(response.statusCode()), response.headers(), in);
+            } catch (IOException ioe) {
+                throw new CompletionException(ioe);
             }
+        }, BODY_READER_EXECUTOR);
+    }
+
+    /**
+     * Builds a request to this endpoint.
+     *
+     * @param type           The type of request to build
+     * @param parameters     The parameters to include in the request
+     * @param requestHeaders Headers to include in the request, on top of the headers of this requester
+     * @return The request
+     */
+    private HttpRequest buildRequest(
+            RequestType type,
+            Map<String, String> parameters,
+            Map<String, String> requestHeaders
+    ) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(parameters == null || parameters.isEmpty()
+                        ? endpointUrl
+                        : endpointUrl + stringifyParameters(parameters)
+                ))
+                .timeout(requestTimeout)
+                .method(type.string(), HttpRequest.BodyPublishers.noBody())
+                .header("Accept-Encoding", "gzip");
+        if (headers != null) {
+            headers.forEach(request::header);
+        }
+        if (requestHeaders != null) {
+            requestHeaders.forEach(request::header);
         }
-        return new Response(statusCode, con.getResponseMessage(), response.toString());
+        return request.build();
+    }
+
+    /**
+     * Logs the status of a response.
+     *
+     * @param statusCode The response status code
+     */
+    private static void logStatus(int statusCode) {
+        LOGGER.log(
+                statusCode < 300 ? Level.INFO : Level.WARNING,
+                "Request returned with status {0} {1}",
+                new Object[]{statusCode, statusMessage(statusCode)}
+        );
+    }
+
+    /**
+     * Wraps a response body in a decompressing stream, if the server compressed it.
+     * Responses that never have a body, like {@code 304 Not Modified}, are left as is.
+     *
+     * @param body     The response body, as received
+     * @param response The response
+     * @return The decompressed response body
+     * @throws IOException If an {@link IOException} occurs when reading the compression header
+     */
+    private static InputStream decode(InputStream body, HttpResponse<?> response) throws IOException {
+        return response.statusCode() != 204 && response.statusCode() != 304
+                && response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()
+                ? new GZIPInputStream(body)
+                : body;
+    }
+
+    /**
+     * Returns the status message for a status code. {@link HttpClient} doesn't expose the reason phrase
+     * sent by the server, & HTTP/2 doesn't have one at all, so the standard message is used.
+     *
+     * @param statusCode The status code
+     * @return The standard status message for {@code statusCode}, or an empty string if it's not a common code
+     */
+    private static String statusMessage(int statusCode) {
+        return switch (statusCode) {
+            case 200 -> "OK";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 422 -> "Unprocessable Entity";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 502 -> "Bad Gateway";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            default -> "";
+        };
+    }
+
+    /**
+     * Returns the JSON factory shared by all requesters, for readers that want to stream-parse a response body.
+     *
+     * @return The shared JSON factory
+     */
+    static JsonFactory jsonFactory() {
+        return OBJECT_MAPPER.getFactory();
+    }
+
+    /**
+     * Reads the body of a response into a result.
+     *
+     * @param <T> The type of result produced
+     */
+    @FunctionalInterface
+    interface BodyReader<T> {
+        /**
+         * Reads the response body. The stream is closed by the requester once this returns.
+         *
+         * @param statusCode    The response status code
+         * @param statusMessage The response status message
+         * @param headers       The response headers
+         * @param body          The response body, decompressed. If the request failed, this is the error body
+         * @return The result of reading the body
+         * @throws IOException If an {@link IOException} occurs when reading the body
+         */
+        T read(int statusCode, String statusMessage, HttpHeaders headers, InputStream body) throws IOException;
     }
 
     public enum RequestType {
@@ -159,13 +465,26 @@ class HtmlRequester {
 
             JsonNode parsedJson;
             try {
-                parsedJson = new ObjectMapper().readTree(rawData);
+                parsedJson = OBJECT_MAPPER.readTree(rawData);
             } catch (JsonProcessingException jpe) {
                 parsedJson = null;
             }
             json = parsedJson;
         }
 
+        /**
+         * Reads a complete response body into a response object.
+         *
+         * @param statusCode    The response status code
+         * @param statusMessage The response status message
+         * @param body          The response body
+         * @return The response
+         * @throws IOException If an {@link IOException} occurs when reading the body
+         */
+        static Response read(int statusCode, String statusMessage, InputStream body) throws IOException {
+            return new Response(statusCode, statusMessage, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
         /**
          * Returns the response status code.
          *
@@ -0,0 +1,120 @@
+package currencyexchanger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations, cheap enough to record into on every request.
+ * <p>
+ * Durations are counted in buckets on a logarithmic scale, with 8 buckets per power of two, so any percentile
+ * read from the histogram is at most 12.5% above the true value. Recording is a few arithmetic operations
+ * & one atomic increment, & never allocates.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final LongAdder total;
+    private final AtomicLong max;
+
+    /**
+     * Creates an empty histogram.
+     */
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds. Negative durations are recorded as {@code 0}
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Summarizes the durations recorded so far.
+     *
+     * @return A summary of the durations recorded so far
+     */
+    LatencySummary summary() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long maxNanos = max.get();
+        return new LatencySummary(
+                count,
+                count == 0 ? 0 : total.sum() / count,
+                percentile(snapshot, count, 0.5, maxNanos),
+                percentile(snapshot, count, 0.9, maxNanos),
+                percentile(snapshot, count, 0.99, maxNanos),
+                maxNanos
+        );
+    }
+
+    /**
+     * Finds a percentile of the recorded durations.
+     *
+     * @param snapshot   The bucket counts
+     * @param count      The total of the bucket counts
+     * @param percentile The percentile to find, from {@code 0} to {@code 1}
+     * @param maxNanos   The longest recorded duration, which no percentile can exceed
+     * @return The upper bound of the bucket the percentile falls in, or {@code 0} if nothing was recorded
+     */
+    private static long percentile(long[] snapshot, long count, double percentile, long maxNanos) {
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBoundOf(i), maxNanos);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the bucket a duration is counted in.
+     *
+     * @param value The duration, in nanoseconds, not negative
+     * @return The index of the bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the longest duration counted in a bucket.
+     *
+     * @param bucket The index of the bucket
+     * @return The longest duration counted in the bucket, in nanoseconds
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowerBound = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+        return lowerBound + width - 1;
+    }
+}
@@ -0,0 +1,104 @@
+package currencyexchanger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A summary of recorded durations, such as request latencies. Percentiles are approximate,
+ * & at most 12.5% above the true value.
+ *
+ * @see RatesMetrics
+ */
+public final class LatencySummary {
+    private final long count;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    /**
+     * Creates the summary.
+     *
+     * @param count     The amount of recorded durations
+     * @param meanNanos The mean duration, in nanoseconds
+     * @param p50Nanos  The median duration, in nanoseconds
+     * @param p90Nanos  The 90th percentile duration, in nanoseconds
+     * @param p99Nanos  The 99th percentile duration, in nanoseconds
+     * @param maxNanos  The longest duration, in nanoseconds
+     */
+    LatencySummary(long count, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Returns the amount of recorded durations.
+     *
+     * @return The amount of recorded durations
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean duration.
+     *
+     * @return The mean duration, in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    /**
+     * Returns the median duration.
+     *
+     * @return The median duration, in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    /**
+     * Returns the 90th percentile duration.
+     *
+     * @return The 90th percentile duration, in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    /**
+     * Returns the 99th percentile duration.
+     *
+     * @return The 99th percentile duration, in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    /**
+     * Returns the longest duration.
+     *
+     * @return The longest duration, in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "count=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus",
+                count,
+                TimeUnit.NANOSECONDS.toMicros(meanNanos),
+                TimeUnit.NANOSECONDS.toMicros(p50Nanos),
+                TimeUnit.NANOSECONDS.toMicros(p90Nanos),
+                TimeUnit.NANOSECONDS.toMicros(p99Nanos),
+                TimeUnit.NANOSECONDS.toMicros(maxNanos)
+        );
+    }
+}
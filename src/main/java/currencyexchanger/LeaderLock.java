@@ -0,0 +1,29 @@
+package currencyexchanger;
+
+import java.io.IOException;
+
+/**
+ * A lock that elects one node of a fleet as its leader, the only node that retrieves rates from upstream.
+ * <p>
+ * A lock is asked again every time rates are due, so implementations backed by leases can lose the lock,
+ * & another node takes over on its next attempt.
+ *
+ * @see FileLeaderLock
+ * @see RatesManager.Builder#setFleet(LeaderLock, java.net.InetSocketAddress)
+ */
+public interface LeaderLock {
+    /**
+     * Tries to become, or stay, the leader. Must not block for long.
+     *
+     * @return Whether this node holds the lock after the call
+     * @throws IOException If the lock can't be reached, in which case this node is not the leader
+     */
+    boolean tryAcquire() throws IOException;
+
+    /**
+     * Stops being the leader, so another node can take over. Does nothing if this node isn't the leader.
+     *
+     * @throws IOException If the lock can't be released
+     */
+    void release() throws IOException;
+}
@@ -0,0 +1,117 @@
+package currencyexchanger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers updates to a single listener on an {@link Executor}, so a slow or failing listener
+ * can't hold up the scheduler, or any other listener.
+ * <p>
+ * Each mailbox holds at most one pending update. If a new update arrives before the listener has taken
+ * the pending one, the two are merged, so a listener that falls behind skips straight to the newest rates
+ * instead of working through stale ones. Updates are delivered to the listener one at a time,
+ * in the order they were published, & exceptions thrown by the listener are logged
+ * without affecting later updates.
+ *
+ * @param <T> The type of updates delivered
+ */
+class ListenerMailbox<T> {
+    private static final Logger LOGGER = Logger.getLogger(ListenerMailbox.class.getName());
+
+    private final Consumer<T> listener;
+    private final BinaryOperator<T> merger;
+    private final Executor executor;
+    private final RatesMetrics metrics;
+    private final AtomicReference<T> pending;
+    private final AtomicBoolean draining;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates the mailbox.
+     *
+     * @param listener Delivers an update to the listener
+     * @param merger   Merges a pending update with a newer one, into a single update
+     * @param executor The executor to deliver updates on
+     * @param metrics  The metrics to record the time taken by the listener into
+     */
+    ListenerMailbox(Consumer<T> listener, BinaryOperator<T> merger, Executor executor, RatesMetrics metrics) {
+        this.listener = listener;
+        this.merger = merger;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.pending = new AtomicReference<>();
+        this.draining = new AtomicBoolean(false);
+
+        this.closed = false;
+    }
+
+    /**
+     * Queues an update for delivery, merging it with any update that hasn't been delivered yet. Never blocks.
+     *
+     * @param update The update to deliver
+     */
+    void offer(T update) {
+        if (closed) {
+            return;
+        }
+        pending.accumulateAndGet(update, (older, newer) -> older == null ? newer : merger.apply(older, newer));
+        scheduleDrain();
+    }
+
+    /**
+     * Stops delivering updates. An update already being delivered is unaffected, but a pending update is dropped.
+     */
+    void close() {
+        closed = true;
+        pending.set(null);
+    }
+
+    /**
+     * Submits a drain to the executor, unless one is already submitted or running.
+     */
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException ree) {
+                draining.set(false);
+                LOGGER.log(Level.WARNING, "Updated rates couldn't be delivered to a listener", ree);
+            }
+        }
+    }
+
+    /**
+     * Delivers pending updates to the listener until none are left.
+     */
+    private void drain() {
+        try {
+            T update;
+            while ((update = pending.getAndSet(null)) != null) {
+                if (closed) {
+                    break;
+                }
+                long start = System.nanoTime();
+                try {
+                    listener.accept(update);
+                } catch (RuntimeException re) {
+                    LOGGER.log(Level.WARNING, "A listener failed to handle updated rates", re);
+                }
+                metrics.recordDispatch(System.nanoTime() - start);
+            }
+        } finally {
+            // Also cleared if the listener threw an Error, which would otherwise stop all further deliveries
+            draining.set(false);
+            // Updates offered after the last poll, but before draining was cleared, would otherwise be stranded
+            if (pending.get() != null) {
+                scheduleDrain();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package currencyexchanger;
+
+/**
+ * A change in the exchange rate to one currency, between two consecutive updates.
+ *
+ * @see RatesDelta
+ */
+public final class RateChange {
+    private final CurrencyId currency;
+    private final double oldRate;
+    private final double newRate;
+    private final double relativeChange;
+
+    /**
+     * Creates the change.
+     *
+     * @param currency The currency the rate is to
+     * @param oldRate  The rate before the update, or {@code NaN} if there was none
+     * @param newRate  The rate after the update, or {@code NaN} if there is none
+     */
+    RateChange(CurrencyId currency, double oldRate, double newRate) {
+        this.currency = currency;
+        this.oldRate = oldRate;
+        this.newRate = newRate;
+        this.relativeChange = Double.isNaN(oldRate) || Double.isNaN(newRate) || oldRate == 0
+                ? Double.POSITIVE_INFINITY
+                : (newRate - oldRate) / Math.abs(oldRate);
+    }
+
+    /**
+     * Returns the currency the rate is to.
+     *
+     * @return The currency the rate is to
+     */
+    public CurrencyId getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Returns the rate before the update.
+     *
+     * @return The rate before the update, or {@code NaN} if the currency is new in this update
+     */
+    public double getOldRate() {
+        return oldRate;
+    }
+
+    /**
+     * Returns the rate after the update.
+     *
+     * @return The rate after the update, or {@code NaN} if the currency is no longer available
+     */
+    public double getNewRate() {
+        return newRate;
+    }
+
+    /**
+     * Returns how much the rate changed, relative to the old rate. A rise from {@code 2.0} to {@code 2.1}
+     * is {@code 0.05}, & a fall from {@code 2.0} to {@code 1.9} is {@code -0.05}.
+     *
+     * @return How much the rate changed, relative to the old rate,
+     *         or {@link Double#POSITIVE_INFINITY} if the currency was added or removed, or the old rate was {@code 0}
+     */
+    public double getRelativeChange() {
+        return relativeChange;
+    }
+
+    @Override
+    public String toString() {
+        return currency + ": " + oldRate + " -> " + newRate;
+    }
+}
@@ -0,0 +1,121 @@
+package currencyexchanger;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how much of its request quota an API has left, from the rate limit headers in its responses.
+ * <p>
+ * Every pair of {@code X-RateLimit-Limit<suffix>} & {@code X-RateLimit-Remaining<suffix>} headers is read,
+ * such as freecurrencyapi's {@code -Quota-Minute} & {@code -Quota-Month} pairs, & the most depleted one is used.
+ * A {@code Retry-After} header, either in seconds or as an HTTP date, is also tracked.
+ */
+class RateLimits {
+    private static final String LIMIT_PREFIX = "x-ratelimit-limit";
+    private static final String REMAINING_PREFIX = "x-ratelimit-remaining";
+
+    private volatile double remainingFraction;
+    private volatile long retryAfterNanos;
+
+    /**
+     * Creates the tracker, assuming the full quota is left until a response says otherwise.
+     */
+    RateLimits() {
+        this.remainingFraction = 1;
+        this.retryAfterNanos = System.nanoTime();
+    }
+
+    /**
+     * Updates the tracked limits from the headers of a response.
+     * Responses without rate limit headers leave the limits unchanged.
+     *
+     * @param headers The response headers
+     */
+    void update(HttpHeaders headers) {
+        Map<String, List<String>> headerMap = headers.map();
+        double fraction = Double.NaN;
+        for (String name : headerMap.keySet()) {
+            String lowerCaseName = name.toLowerCase(Locale.ROOT);
+            if (!lowerCaseName.startsWith(REMAINING_PREFIX)) {
+                continue;
+            }
+            String suffix = lowerCaseName.substring(REMAINING_PREFIX.length());
+            double remaining = parse(headers.firstValue(name).orElse(null));
+            double limit = parse(headers.firstValue(LIMIT_PREFIX + suffix).orElse(null));
+            if (remaining >= 0 && limit > 0) {
+                fraction = Double.isNaN(fraction) ? remaining / limit : Math.min(fraction, remaining / limit);
+            }
+        }
+        if (!Double.isNaN(fraction)) {
+            remainingFraction = Math.max(0, Math.min(1, fraction));
+        }
+
+        long retryAfter = parseRetryAfter(headers.firstValue("Retry-After").orElse(null));
+        if (retryAfter > 0) {
+            retryAfterNanos = System.nanoTime() + retryAfter;
+        }
+    }
+
+    /**
+     * Returns how much of the quota is left, according to the latest response with rate limit headers.
+     *
+     * @return How much of the quota is left, from {@code 0} (nothing) to {@code 1} (everything)
+     */
+    double remainingFraction() {
+        return remainingFraction;
+    }
+
+    /**
+     * Returns how long until the API accepts requests again, according to the latest {@code Retry-After} header.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The time left to wait, in nanoseconds, or {@code 0} if there's no need to wait
+     */
+    long retryAfterNanos(long nowNanos) {
+        return Math.max(0, retryAfterNanos - nowNanos);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header value, which is either an amount of seconds, or an HTTP date.
+     *
+     * @param value The header value, or {@code null} if the header is missing
+     * @return How long to wait, in nanoseconds, or {@code -1} if the header is missing or invalid
+     */
+    private static long parseRetryAfter(String value) {
+        double seconds = parse(value);
+        if (seconds < 0 && value != null) {
+            try {
+                Instant date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                seconds = Duration.between(Instant.now(), date).toMillis() / 1000.0;
+            } catch (DateTimeParseException dtpe) {
+                return -1;
+            }
+        }
+        return seconds < 0 ? -1 : (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Parses a numeric header value.
+     *
+     * @param value The header value, or {@code null} if the header is missing
+     * @return The parsed value, or {@code -1} if the header is missing or not a number
+     */
+    private static double parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package currencyexchanger;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Somewhere a {@link RatesManager} can retrieve the latest exchange rates from.
+ * <p>
+ * Besides the freecurrencyapi source, rates can be replayed from recorded responses through a
+ * {@link ReplayRateSource}, & two sources can be combined with a {@link HedgedRateSource}.
+ * Sources must be safe to use from multiple threads at once.
+ *
+ * @see RatesManager.Builder#Builder(RateSource)
+ */
+public interface RateSource {
+    /**
+     * Creates a source that retrieves rates from <a href="https://freecurrencyapi.com/">https://freecurrencyapi.com/</a>.
+     *
+     * @param apiKey The API key to use when making requests
+     * @return The source
+     */
+    static RateSource freecurrencyapi(String apiKey) {
+        return new ApiWrapper(apiKey);
+    }
+
+    /**
+     * Creates a source that retrieves rates from an API with the same endpoints & response format as freecurrencyapi,
+     * such as a {@link RatesServer} run by another manager.
+     *
+     * @param apiKey         The API key to use when making requests
+     * @param baseApiUrl     The base URL of the API, ending with a {@code /}
+     * @param connectTimeout The maximum time to wait for a connection to the API to be established
+     * @param requestTimeout The maximum time to wait for a response, after sending a request
+     * @return The source
+     * @see RatesServer#getBaseUrl()
+     */
+    static RateSource freecurrencyapi(String apiKey, String baseApiUrl, Duration connectTimeout, Duration requestTimeout) {
+        return new ApiWrapper(apiKey, baseApiUrl, connectTimeout, requestTimeout);
+    }
+
+    /**
+     * Retrieves the latest exchange rates, without blocking the calling thread.
+     * <p>
+     * If the rates haven't changed since a previous identical request, the source may complete with
+     * the same table instance as before, which lets callers skip work for unchanged rates.
+     *
+     * @param baseCurrency The base currency to get exchange rates for. If {@code null}, USD is used
+     * @param currencies   All currencies to get the exchange rate to. If {@code null} or empty, all currencies are used
+     * @return A future that completes with a table with the exchange rates for {@code baseCurrency}
+     *         to all requested currencies, or exceptionally if the rates couldn't be retrieved
+     */
+    CompletableFuture<RateTable> fetch(String baseCurrency, Collection<String> currencies);
+
+    /**
+     * Returns how much of its request quota this source has left. Intervals are stretched when it runs low.
+     *
+     * @return How much of the quota is left, from {@code 0} (nothing) to {@code 1} (everything).
+     *         Sources without a quota always return {@code 1}
+     */
+    default double remainingQuotaFraction() {
+        return 1;
+    }
+
+    /**
+     * Returns how long until this source accepts requests again, after it asked to be left alone.
+     * Failed updates aren't retried until then.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The time left to wait, in nanoseconds, or {@code 0} if there's no need to wait
+     */
+    default long retryAfterNanos(long nowNanos) {
+        return 0;
+    }
+}
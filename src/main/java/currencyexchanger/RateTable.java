@@ -0,0 +1,331 @@
+package currencyexchanger;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable table of exchange rates from one base currency.
+ * Rates are stored in a {@code double[]} indexed by {@link CurrencyId#index()},
+ * so looking up a rate is a single array read, with no hashing or unboxing.
+ * <p>
+ * Tables are never modified after being built, & can be freely shared between threads.
+ *
+ * @see Builder
+ */
+public final class RateTable {
+    private final CurrencyId baseCurrency;
+    private final CurrencyId[] currencies;
+    private final double[] rates;
+
+    private Map<String, Double> mapView;
+    private FixedPointRates fixedPoint;
+
+    /**
+     * Creates the table.
+     *
+     * @param baseCurrency The base currency of the rates
+     * @param currencies   All currencies in the table, in the order they were added
+     * @param rates        The rates, indexed by {@link CurrencyId#index()}. Missing rates are {@code NaN}
+     */
+    private RateTable(CurrencyId baseCurrency, CurrencyId[] currencies, double[] rates) {
+        this.baseCurrency = baseCurrency;
+        this.currencies = currencies;
+        this.rates = rates;
+    }
+
+    /**
+     * Returns the base currency of the rates in this table.
+     *
+     * @return The base currency
+     */
+    public CurrencyId getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    /**
+     * Returns all currencies in this table, in the order they were received.
+     *
+     * @return An unmodifiable list of all currencies in this table
+     */
+    public List<CurrencyId> getCurrencies() {
+        return Collections.unmodifiableList(Arrays.asList(currencies));
+    }
+
+    /**
+     * Returns the amount of currencies in this table.
+     *
+     * @return The amount of currencies in this table
+     */
+    public int size() {
+        return currencies.length;
+    }
+
+    /**
+     * Returns the currency at the specified position in this table.
+     *
+     * @param position The position of the currency, from {@code 0} up to {@link #size()}
+     * @return The currency at the specified position
+     */
+    public CurrencyId currencyAt(int position) {
+        return currencies[position];
+    }
+
+    /**
+     * Returns whether this table has a rate for the specified currency.
+     *
+     * @param currency The currency to check
+     * @return <ul><li><b>{@code true}</b> - This table has a rate for {@code currency}</li>
+     *         <li><b>{@code false}</b> - This table has no rate for {@code currency}</li></ul>
+     */
+    public boolean contains(CurrencyId currency) {
+        return !Double.isNaN(rate(currency));
+    }
+
+    /**
+     * Returns the exchange rate from the base currency to the specified currency.
+     *
+     * @param currency The currency to get the rate to
+     * @return The exchange rate, or {@code NaN} if this table has no rate for {@code currency}
+     */
+    public double rate(CurrencyId currency) {
+        int index = currency.index();
+        return index < rates.length ? rates[index] : Double.NaN;
+    }
+
+    /**
+     * Returns the exchange rate from the base currency to the specified currency.
+     * Prefer {@link #rate(CurrencyId)} on hot paths, as this has to look up the currency code.
+     *
+     * @param currencyCode The code of the currency to get the rate to
+     * @return The exchange rate, or {@code NaN} if this table has no rate for {@code currencyCode}
+     */
+    public double rate(String currencyCode) {
+        CurrencyId currency = CurrencyId.find(currencyCode);
+        return currency == null ? Double.NaN : rate(currency);
+    }
+
+    /**
+     * Returns a table with only some of the rates in this table. Currencies that aren't in this table are skipped.
+     *
+     * @param subset The currencies to keep
+     * @return A table with the rates for the currencies in {@code subset}.
+     *         If that's every currency in this table, this table is returned as is
+     */
+    public RateTable subset(Collection<CurrencyId> subset) {
+        Builder builder = new Builder(baseCurrency);
+        for (CurrencyId currency : currencies) {
+            if (subset.contains(currency)) {
+                builder.put(currency, rates[currency.index()]);
+            }
+        }
+        return builder.size == currencies.length ? this : builder.build();
+    }
+
+    /**
+     * Returns a read-only map view of this table, with currency codes as keys.
+     * Values are boxed on access, so this is meant for code that needs a {@link Map},
+     * not for hot paths.
+     *
+     * @return A read-only map view of this table
+     */
+    public Map<String, Double> asMap() {
+        Map<String, Double> view = mapView;
+        if (view == null) {
+            view = new MapView();
+            mapView = view;
+        }
+        return view;
+    }
+
+    /**
+     * Returns the rates in this table fixed to {@value FixedPointRates#RATE_SCALE} decimal places,
+     * for exact conversion of amounts in minor units, using ISO 4217 minor units.
+     * The rates are fixed the first time this is called, & reused afterwards.
+     *
+     * @return The rates in this table as fixed-point rates
+     * @see FixedPointRates.Builder
+     */
+    public FixedPointRates fixedPoint() {
+        FixedPointRates fixed = fixedPoint;
+        if (fixed == null) {
+            fixed = FixedPointRates.of(this);
+            fixedPoint = fixed;
+        }
+        return fixed;
+    }
+
+    /**
+     * Checks whether another table has exactly the same rates as this one.
+     *
+     * @param other The table to compare with
+     * @return Whether the tables have the same base currency, currencies & rates
+     */
+    boolean hasSameRates(RateTable other) {
+        if (other == this) {
+            return true;
+        }
+        if (!baseCurrency.equals(other.baseCurrency) || currencies.length != other.currencies.length) {
+            return false;
+        }
+        for (CurrencyId currency : currencies) {
+            if (!other.contains(currency) || Double.compare(rate(currency), other.rate(currency)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    /**
+     * Read-only map view of the table. The table is immutable, so the view needs no copying.
+     */
+    private final class MapView extends AbstractMap<String, Double> {
+        private final Set<Entry<String, Double>> entrySet = new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Double>> iterator() {
+                return new Iterator<>() {
+                    private int position = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < currencies.length;
+                    }
+
+                    @Override
+                    public Entry<String, Double> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        CurrencyId currency = currencies[position++];
+                        return new SimpleImmutableEntry<>(currency.code(), rates[currency.index()]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currencies.length;
+            }
+        };
+
+        @Override
+        public Set<Entry<String, Double>> entrySet() {
+            return entrySet;
+        }
+
+        @Override
+        public int size() {
+            return currencies.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String code && !Double.isNaN(rate(code));
+        }
+
+        @Override
+        public Double get(Object key) {
+            if (key instanceof String code) {
+                double rate = rate(code);
+                return Double.isNaN(rate) ? null : rate;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Builder for {@link RateTable}. Rates are added without boxing.
+     */
+    public static class Builder {
+        private final CurrencyId baseCurrency;
+
+        private CurrencyId[] currencies;
+        private double[] values;
+        private int[] positionsByIndex;
+        private int size;
+
+        /**
+         * Creates the builder.
+         *
+         * @param baseCurrency The base currency of the rates that will be added
+         */
+        public Builder(CurrencyId baseCurrency) {
+            this.baseCurrency = baseCurrency;
+
+            this.currencies = new CurrencyId[32];
+            this.values = new double[32];
+            this.positionsByIndex = new int[0];
+            this.size = 0;
+        }
+
+        /**
+         * Adds a rate to the table. If the currency already has a rate, it's replaced.
+         *
+         * @param currencyCode The code of the currency the rate is to
+         * @param rate         The exchange rate from the base currency to {@code currencyCode}
+         * @return The builder
+         */
+        public Builder put(String currencyCode, double rate) {
+            return put(CurrencyId.of(currencyCode), rate);
+        }
+
+        /**
+         * Adds a rate to the table. If the currency already has a rate, it's replaced.
+         *
+         * @param currency The currency the rate is to
+         * @param rate     The exchange rate from the base currency to {@code currency}
+         * @return The builder
+         */
+        public Builder put(CurrencyId currency, double rate) {
+            int index = currency.index();
+            if (index >= positionsByIndex.length) {
+                positionsByIndex = Arrays.copyOf(positionsByIndex, Math.max(index + 1, CurrencyId.registeredCount()));
+            }
+            // Positions are stored off by one, so the default 0 means "not added yet"
+            int position = positionsByIndex[index] - 1;
+            if (position >= 0) {
+                values[position] = rate;
+                return this;
+            }
+            positionsByIndex[index] = size + 1;
+            if (size == currencies.length) {
+                currencies = Arrays.copyOf(currencies, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            currencies[size] = currency;
+            values[size] = rate;
+            size++;
+            return this;
+        }
+
+        /**
+         * Builds the {@link RateTable}.
+         *
+         * @return The newly built {@link RateTable}
+         */
+        public RateTable build() {
+            int maxIndex = -1;
+            for (int i = 0; i < size; i++) {
+                maxIndex = Math.max(maxIndex, currencies[i].index());
+            }
+            double[] rates = new double[maxIndex + 1];
+            Arrays.fill(rates, Double.NaN);
+            for (int i = 0; i < size; i++) {
+                rates[currencies[i].index()] = values[i];
+            }
+            return new RateTable(baseCurrency, Arrays.copyOf(currencies, size), rates);
+        }
+    }
+}
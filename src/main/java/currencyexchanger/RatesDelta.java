@@ -0,0 +1,160 @@
+package currencyexchanger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rates that changed between two updates. The changes are computed once, & shared by every listener
+ * that was notified of the rates before the update. Listeners that weren't, because some changes were below
+ * their threshold, compute the changes from the rates they were last notified of instead.
+ */
+final class RatesDelta {
+    private final RateTable previous;
+    private final RateTable current;
+
+    private List<RateChange> changes;
+
+    /**
+     * Creates the delta. The changes aren't computed until they're first needed.
+     *
+     * @param previous The rates before the update, or {@code null} if this is the first update
+     * @param current  The rates after the update
+     */
+    RatesDelta(RateTable previous, RateTable current) {
+        this.previous = previous;
+        this.current = current;
+
+        this.changes = null;
+    }
+
+    /**
+     * Combines two consecutive deltas into one, spanning from the rates before {@code older}
+     * to the rates after {@code newer}. Used when a listener falls behind.
+     *
+     * @param older The older delta
+     * @param newer The newer delta
+     * @return The combined delta
+     */
+    static RatesDelta combine(RatesDelta older, RatesDelta newer) {
+        return new RatesDelta(older.previous, newer.current);
+    }
+
+    /**
+     * Returns the rates before the update.
+     *
+     * @return The rates before the update, or {@code null} if this is the first update
+     */
+    RateTable getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Returns the rates after the update.
+     *
+     * @return The rates after the update
+     */
+    RateTable getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns the changes from some earlier rates to the rates after the update.
+     * From the rates before the update, these are the shared changes, computed only once.
+     *
+     * @param baseline The earlier rates, or {@code null} to treat every rate as new
+     * @return An unmodifiable list of the changes, largest relative change first
+     */
+    List<RateChange> changesFrom(RateTable baseline) {
+        if (baseline == previous) {
+            computeChanges();
+            return changes;
+        }
+        return diff(baseline, current);
+    }
+
+    /**
+     * Computes the shared changes, if they haven't been computed already.
+     */
+    synchronized void computeChanges() {
+        if (changes == null) {
+            changes = diff(previous, current);
+        }
+    }
+
+    /**
+     * Returns the changes with a relative change of at least {@code minRelativeChange}, in either direction.
+     *
+     * @param changes           The changes, largest relative change first
+     * @param minRelativeChange The smallest relative change to include
+     * @return An unmodifiable list of the changes, largest relative change first
+     */
+    static List<RateChange> atLeast(List<RateChange> changes, double minRelativeChange) {
+        int count = 0;
+        while (count < changes.size() && Math.abs(changes.get(count).getRelativeChange()) >= minRelativeChange) {
+            count++;
+        }
+        return changes.subList(0, count);
+    }
+
+    /**
+     * Applies changes to some earlier rates, leaving the rates without a change as they were.
+     *
+     * @param baseline The earlier rates, or {@code null} if there are none
+     * @param changes  The changes to apply
+     * @param base     The base currency of the rates
+     * @return The rates with the changes applied
+     */
+    static RateTable apply(RateTable baseline, List<RateChange> changes, CurrencyId base) {
+        Set<CurrencyId> changed = new HashSet<>();
+        for (RateChange change : changes) {
+            changed.add(change.getCurrency());
+        }
+        RateTable.Builder rates = new RateTable.Builder(base);
+        if (baseline != null) {
+            for (int i = 0; i < baseline.size(); i++) {
+                CurrencyId currency = baseline.currencyAt(i);
+                if (!changed.contains(currency) && baseline.contains(currency)) {
+                    rates.put(currency, baseline.rate(currency));
+                }
+            }
+        }
+        for (RateChange change : changes) {
+            if (!Double.isNaN(change.getNewRate())) {
+                rates.put(change.getCurrency(), change.getNewRate());
+            }
+        }
+        return rates.build();
+    }
+
+    /**
+     * Computes the changes between two tables of rates.
+     *
+     * @param previous The earlier rates, or {@code null} to treat every rate as new
+     * @param current  The later rates
+     * @return An unmodifiable list of the changes, largest relative change first
+     */
+    private static List<RateChange> diff(RateTable previous, RateTable current) {
+        List<RateChange> changed = new ArrayList<>();
+        for (int i = 0; i < current.size(); i++) {
+            CurrencyId currency = current.currencyAt(i);
+            double newRate = current.rate(currency);
+            double oldRate = previous == null ? Double.NaN : previous.rate(currency);
+            if (Double.compare(oldRate, newRate) != 0) {
+                changed.add(new RateChange(currency, oldRate, newRate));
+            }
+        }
+        if (previous != null) {
+            for (int i = 0; i < previous.size(); i++) {
+                CurrencyId currency = previous.currencyAt(i);
+                if (previous.contains(currency) && !current.contains(currency)) {
+                    changed.add(new RateChange(currency, previous.rate(currency), Double.NaN));
+                }
+            }
+        }
+        changed.sort((a, b) -> Double.compare(Math.abs(b.getRelativeChange()), Math.abs(a.getRelativeChange())));
+        return Collections.unmodifiableList(changed);
+    }
+}
@@ -0,0 +1,21 @@
+package currencyexchanger;
+
+import java.util.List;
+
+/**
+ * Listens for changes in currency exchange rates. Unlike a {@link RatesUpdateListener},
+ * this only receives the rates that changed since the last update it received,
+ * & can ignore changes that are too small to matter.
+ *
+ * @see RatesManager#addDeltaListener(RatesDeltaListener, double)
+ */
+@FunctionalInterface
+public interface RatesDeltaListener {
+    /**
+     * Called whenever rates change by at least the listener's threshold. Not called if no rates did.
+     *
+     * @param changes The rates that changed, largest relative change first
+     * @param rates   All the latest rates, including those that didn't change
+     */
+    void onChanges(List<RateChange> changes, RateTable rates);
+}
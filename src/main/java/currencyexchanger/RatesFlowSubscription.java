@@ -0,0 +1,216 @@
+package currencyexchanger;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers snapshots to a single {@link Flow.Subscriber}, as far as its demand allows.
+ * <p>
+ * Like a {@link ListenerMailbox}, at most one snapshot is held back at a time. A subscriber that hasn't requested
+ * more by the time a newer snapshot arrives skips straight to the newest one, so a slow subscriber never makes
+ * snapshots pile up. Signals are delivered one at a time, on an {@link Executor}.
+ *
+ * @see RatesSubscription#publisher(java.util.Collection)
+ */
+class RatesFlowSubscription implements Flow.Subscription {
+    private static final Logger LOGGER = Logger.getLogger(RatesFlowSubscription.class.getName());
+
+    private final Flow.Subscriber<? super RatesSnapshot> subscriber;
+    private final Set<CurrencyId> currencies;
+    private final Executor executor;
+    private final RatesMetrics metrics;
+    private final Consumer<RatesFlowSubscription> onCancel;
+    private final AtomicReference<RatesSnapshot> pending;
+    private final AtomicLong demand;
+    private final AtomicInteger drainRequests;
+
+    // Only touched by drains, which run one at a time
+    private long deliveredSequence;
+
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    private volatile Throwable error;
+
+    /**
+     * Creates the subscription. Nothing is delivered until the subscriber requests it.
+     *
+     * @param subscriber The subscriber to deliver snapshots to
+     * @param currencies The currencies to include in delivered snapshots, or {@code null} to include all
+     * @param executor   The executor to deliver signals on
+     * @param metrics    The metrics to record the time taken by the subscriber into
+     * @param onCancel   Called once, when this subscription is cancelled or terminated
+     */
+    RatesFlowSubscription(
+            Flow.Subscriber<? super RatesSnapshot> subscriber,
+            Set<CurrencyId> currencies,
+            Executor executor,
+            RatesMetrics metrics,
+            Consumer<RatesFlowSubscription> onCancel
+    ) {
+        this.subscriber = subscriber;
+        this.currencies = currencies;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.onCancel = onCancel;
+        this.pending = new AtomicReference<>();
+        this.demand = new AtomicLong();
+        this.drainRequests = new AtomicInteger();
+
+        this.deliveredSequence = 0;
+
+        this.cancelled = false;
+        this.completed = false;
+        this.error = null;
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            error = new IllegalArgumentException("A subscriber must request a positive amount of snapshots, not " + n);
+        } else {
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        }
+        scheduleDrain();
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            pending.set(null);
+            onCancel.accept(this);
+        }
+    }
+
+    /**
+     * Returns whether this subscription is cancelled or terminated.
+     *
+     * @return Whether this subscription is cancelled or terminated
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Queues a snapshot for delivery, replacing any older snapshot that hasn't been delivered yet. Never blocks.
+     * Snapshots are ordered by sequence number, so a snapshot that's older than the one already queued
+     * or delivered, such as the latest snapshot offered to a new subscriber while a newer one is published,
+     * is dropped.
+     *
+     * @param snapshot The snapshot to deliver
+     */
+    void offer(RatesSnapshot snapshot) {
+        if (cancelled) {
+            return;
+        }
+        pending.accumulateAndGet(snapshot, (queued, offered) ->
+                queued == null || offered.getSequence() > queued.getSequence() ? offered : queued
+        );
+        scheduleDrain();
+    }
+
+    /**
+     * Tells the subscriber that no more snapshots are coming, once it's been delivered the one it's waiting for.
+     */
+    void complete() {
+        completed = true;
+        scheduleDrain();
+    }
+
+    /**
+     * Submits a drain to the executor, unless one is already submitted or running,
+     * in which case that drain runs once more before finishing.
+     */
+    private void scheduleDrain() {
+        if (drainRequests.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException ree) {
+                drainRequests.set(0);
+                LOGGER.log(Level.WARNING, "Updated rates couldn't be delivered to a subscriber", ree);
+            }
+        }
+    }
+
+    /**
+     * Delivers as many pending signals as the subscriber has demand for, until no more drains are requested.
+     */
+    private void drain() {
+        int requests = drainRequests.get();
+        try {
+            do {
+                if (!cancelled) {
+                    deliver();
+                }
+                requests = drainRequests.addAndGet(-requests);
+            } while (requests != 0);
+        } finally {
+            if (requests != 0) {
+                // The subscriber threw an Error, which would otherwise stop all further deliveries
+                drainRequests.set(0);
+                if (pending.get() != null || completed) {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the pending snapshot if there's demand for it, followed by any terminal signal.
+     */
+    private void deliver() {
+        Throwable failure = error;
+        if (failure != null) {
+            cancel();
+            signal(() -> subscriber.onError(failure));
+            return;
+        }
+        RatesSnapshot snapshot;
+        if (demand.get() > 0 && (snapshot = pending.getAndSet(null)) != null
+                && snapshot.getSequence() > deliveredSequence) {
+            deliveredSequence = snapshot.getSequence();
+            if (demand.get() != Long.MAX_VALUE) {
+                demand.decrementAndGet();
+            }
+            RatesSnapshot delivered = currencies == null ? snapshot : new RatesSnapshot(
+                    snapshot.getRates().subset(currencies),
+                    snapshot.getFetchedAt(),
+                    snapshot.getSequence()
+            );
+            long start = System.nanoTime();
+            if (!signal(() -> subscriber.onNext(delivered))) {
+                return;
+            }
+            metrics.recordDispatch(System.nanoTime() - start);
+        }
+        if (completed && !cancelled && (pending.get() == null || demand.get() == 0)) {
+            cancel();
+            signal(subscriber::onComplete);
+        }
+    }
+
+    /**
+     * Sends a signal to the subscriber. Subscribers must not throw, so one that does is cancelled.
+     *
+     * @param signal Sends the signal
+     * @return Whether the subscriber handled the signal without throwing
+     */
+    private boolean signal(Runnable signal) {
+        try {
+            signal.run();
+            return true;
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.WARNING, "A subscriber failed to handle updated rates, & was cancelled", re);
+            cancel();
+            return false;
+        }
+    }
+}
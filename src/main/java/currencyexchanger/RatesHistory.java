@@ -0,0 +1,466 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only history of every snapshot of rates fetched from one base currency.
+ * <p>
+ * Snapshots are stored in columnar, compressed segment files, each holding up to {@value #SEGMENT_ROWS} snapshots.
+ * Each segment records the time span it covers, so queries only read the segments they need,
+ * & decode them straight from memory-mapped files. The newest segment is encoded in memory as snapshots
+ * are appended, & each snapshot is also appended to a log file next to it, so appending takes the same time
+ * however full the segment is. Once the segment is full, it's written to its segment file & the log is deleted.
+ * Segment files are never modified, & logs left behind by a previous run are picked up again when opening.
+ * <p>
+ * Queries can be made from any thread, including while snapshots are being appended.
+ *
+ * @see RatesManager#history(String)
+ * @see HistorySegment
+ */
+public final class RatesHistory {
+    /**
+     * The most snapshots a single segment file holds.
+     */
+    static final int SEGMENT_ROWS = 4096;
+
+    private static final String SEGMENT_SUFFIX = ".hist";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path directory;
+    private final CurrencyId baseCurrency;
+
+    private volatile List<HistorySegment> segments;
+
+    // The segment being appended to, guarded by this
+    private Path activeFile;
+    private Path activeLog;
+    private long activeLogSize;
+    private HistorySegment.Writer activeWriter;
+    private HistorySegment activeView;
+    private RateTable lastAppended;
+
+    /**
+     * Creates the history.
+     *
+     * @param directory    The directory the segment files are kept in
+     * @param baseCurrency The base currency of the rates in the history
+     * @param segments     All existing segments, ordered by time
+     */
+    private RatesHistory(Path directory, CurrencyId baseCurrency, List<HistorySegment> segments) {
+        this.directory = directory;
+        this.baseCurrency = baseCurrency;
+        this.segments = List.copyOf(segments);
+
+        this.activeFile = null;
+        this.activeLog = null;
+        this.activeLogSize = 0;
+        this.activeWriter = null;
+        this.activeView = null;
+        this.lastAppended = null;
+    }
+
+    /**
+     * Opens the history kept in a directory, creating the directory if needed.
+     * If a previous run left a segment unfinished, new snapshots are appended to it.
+     *
+     * @param directory    The directory the segment files are kept in
+     * @param baseCurrency The base currency of the rates in the history
+     * @return The history
+     * @throws IOException If the directory can't be created, or a segment file or log can't be read
+     */
+    static RatesHistory open(Path directory, String baseCurrency) throws IOException {
+        Files.createDirectories(directory);
+        List<HistorySegment> segments = new ArrayList<>();
+        List<Path> logs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(HistorySegment.open(file));
+                } else if (file.toString().endsWith(LOG_SUFFIX)) {
+                    logs.add(file);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(HistorySegment::getMinTime));
+        logs.sort(Comparator.naturalOrder());
+
+        RatesHistory history = new RatesHistory(directory, CurrencyId.of(baseCurrency), segments);
+        for (Path log : logs) {
+            history.resume(log);
+        }
+        return history;
+    }
+
+    /**
+     * Replays the log of an unfinished segment, so new snapshots are appended to it.
+     * A record cut short by a crash is dropped from the log.
+     *
+     * @param log The log of the segment to append to
+     * @throws IOException If the log can't be read, or an earlier unfinished segment can't be written
+     */
+    private synchronized void resume(Path log) throws IOException {
+        String name = log.getFileName().toString();
+        Path file = log.resolveSibling(name.substring(0, name.length() - LOG_SUFFIX.length()) + SEGMENT_SUFFIX);
+        if (Files.exists(file)) {
+            // The segment was written, but the log wasn't deleted yet
+            Files.delete(log);
+            return;
+        }
+        if (activeWriter != null) {
+            // Only the newest segment is ever unfinished, so any earlier one is complete
+            seal();
+        }
+
+        HistorySegment.Writer writer = new HistorySegment.Writer();
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(log)).order(ByteOrder.BIG_ENDIAN);
+        int complete = 0;
+        try {
+            while (records.hasRemaining()) {
+                long time = records.getLong();
+                CurrencyId[] added = new CurrencyId[Short.toUnsignedInt(records.getShort())];
+                for (int i = 0; i < added.length; i++) {
+                    byte[] code = new byte[Byte.toUnsignedInt(records.get())];
+                    records.get(code);
+                    added[i] = CurrencyId.of(new String(code, StandardCharsets.US_ASCII));
+                }
+                double[] rates = new double[writer.getColumnCount() + added.length];
+                for (int column = 0; column < rates.length; column++) {
+                    rates[column] = records.getDouble();
+                }
+                for (CurrencyId currency : added) {
+                    writer.addColumn(currency);
+                }
+                writer.append(time, rates);
+                complete = records.position();
+            }
+        } catch (BufferUnderflowException bue) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+        if (writer.getRowCount() == 0) {
+            Files.delete(log);
+            return;
+        }
+
+        activeFile = file;
+        activeLog = log;
+        activeLogSize = complete;
+        activeWriter = writer;
+        publishActiveSegment(writer.view(file));
+    }
+
+    /**
+     * Returns the base currency of the rates in this history.
+     *
+     * @return The base currency of the rates in this history
+     */
+    public CurrencyId getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    /**
+     * Appends a snapshot to this history. Snapshots must be appended in the order they were fetched.
+     * Appending the same rates as the previous append does nothing, as the rates haven't changed.
+     *
+     * @param rates     The rates in the snapshot
+     * @param fetchedAt When the rates were fetched
+     * @return {@code true} if the snapshot was appended, or {@code false} if it was fetched before
+     *         the latest snapshot already in this history, or has the same rates as the previous append
+     * @throws IOException If the log or a segment file can't be written, or a currency code is longer than
+     *                     {@value HistorySegment#MAX_CODE_LENGTH} characters
+     */
+    synchronized boolean append(RateTable rates, Instant fetchedAt) throws IOException {
+        if (lastAppended != null && lastAppended.hasSameRates(rates)) {
+            return false;
+        }
+        long time = fetchedAt.toEpochMilli();
+        List<HistorySegment> current = segments;
+        if (!current.isEmpty() && time < current.get(current.size() - 1).getMaxTime()) {
+            return false;
+        }
+
+        if (activeWriter != null && activeWriter.getRowCount() == SEGMENT_ROWS) {
+            seal();
+        }
+        if (activeWriter == null) {
+            String stem = String.format("%013d", time);
+            activeFile = directory.resolve(stem + SEGMENT_SUFFIX);
+            activeLog = directory.resolve(stem + LOG_SUFFIX);
+            activeLogSize = 0;
+            activeWriter = new HistorySegment.Writer();
+        }
+
+        List<CurrencyId> added = new ArrayList<>();
+        int recordSize = Long.BYTES + Short.BYTES;
+        for (int i = 0; i < rates.size(); i++) {
+            CurrencyId currency = rates.currencyAt(i);
+            if (activeWriter.columnOf(currency) < 0) {
+                if (currency.code().length() > HistorySegment.MAX_CODE_LENGTH) {
+                    throw new IOException("The currency code " + currency.code() + " is too long for the history");
+                }
+                added.add(currency);
+                recordSize += 1 + currency.code().length();
+            }
+        }
+        double[] row = new double[activeWriter.getColumnCount() + added.size()];
+        Arrays.fill(row, Double.NaN);
+        int nextAdded = activeWriter.getColumnCount();
+        for (int i = 0; i < rates.size(); i++) {
+            CurrencyId currency = rates.currencyAt(i);
+            int column = activeWriter.columnOf(currency);
+            row[column < 0 ? nextAdded++ : column] = rates.rate(currency);
+        }
+        recordSize += row.length * Double.BYTES;
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize).order(ByteOrder.BIG_ENDIAN);
+        record.putLong(time).putShort((short) added.size());
+        for (CurrencyId currency : added) {
+            byte[] code = currency.code().getBytes(StandardCharsets.US_ASCII);
+            record.put((byte) code.length).put(code);
+        }
+        for (double rate : row) {
+            record.putDouble(rate);
+        }
+        record.flip();
+        try (FileChannel log = FileChannel.open(activeLog, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drops whatever a failed append left behind
+            log.truncate(activeLogSize);
+            log.position(activeLogSize);
+            while (record.hasRemaining()) {
+                log.write(record);
+            }
+        }
+        activeLogSize += recordSize;
+
+        for (CurrencyId currency : added) {
+            activeWriter.addColumn(currency);
+        }
+        activeWriter.append(time, row);
+        lastAppended = rates;
+        publishActiveSegment(activeWriter.view(activeFile));
+        return true;
+    }
+
+    /**
+     * Writes the active segment to its segment file, swaps the mapped file into the segment index
+     * in place of the in-memory segment, & deletes the log of the segment.
+     *
+     * @throws IOException If the segment file can't be written
+     */
+    private void seal() throws IOException {
+        byte[] encoded = activeWriter.encode();
+        Path temporaryFile = Files.createTempFile(directory, activeFile.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporaryFile, encoded);
+            try {
+                Files.move(temporaryFile, activeFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temporaryFile, activeFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        publishActiveSegment(HistorySegment.open(activeFile));
+        Files.deleteIfExists(activeLog);
+
+        activeFile = null;
+        activeLog = null;
+        activeLogSize = 0;
+        activeWriter = null;
+        activeView = null;
+    }
+
+    /**
+     * Swaps a newer view of the active segment into the segment index.
+     *
+     * @param view The view to swap in
+     */
+    private void publishActiveSegment(HistorySegment view) {
+        List<HistorySegment> updated = new ArrayList<>(segments);
+        if (activeView != null && !updated.isEmpty() && updated.get(updated.size() - 1) == activeView) {
+            updated.set(updated.size() - 1, view);
+        } else {
+            updated.add(view);
+        }
+        segments = List.copyOf(updated);
+        activeView = view;
+    }
+
+    /**
+     * Streams every recorded rate for a currency within a time span, in the order they were fetched.
+     * Snapshots without a rate for the currency are skipped.
+     *
+     * @param currency The code of the currency to get the rates for
+     * @param from     The start of the time span, inclusive
+     * @param to       The end of the time span, inclusive
+     * @param consumer Receives each rate, along with when it was fetched
+     */
+    public void rangeQuery(String currency, Instant from, Instant to, PointConsumer consumer) {
+        CurrencyId currencyId = CurrencyId.find(currency);
+        if (currencyId == null) {
+            return;
+        }
+        long fromTime = from.toEpochMilli();
+        long toTime = to.toEpochMilli();
+        for (HistorySegment segment : segments) {
+            if (segment.getMaxTime() < fromTime || segment.getMinTime() > toTime) {
+                continue;
+            }
+            int column = segment.columnOf(currencyId);
+            if (column < 0) {
+                continue;
+            }
+            HistorySegment.TimeCursor times = segment.times();
+            HistorySegment.RateCursor rates = segment.rates(column);
+            for (int row = 0; row < segment.getRowCount(); row++) {
+                long time = times.next();
+                double rate = rates.next();
+                if (time > toTime) {
+                    break;
+                }
+                if (time >= fromTime && !Double.isNaN(rate)) {
+                    consumer.accept(time, rate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns every recorded rate for a currency within a time span, in the order they were fetched.
+     * Snapshots without a rate for the currency are skipped.
+     *
+     * @param currency The code of the currency to get the rates for
+     * @param from     The start of the time span, inclusive
+     * @param to       The end of the time span, inclusive
+     * @return Every recorded rate within the time span
+     * @see #rangeQuery(String, Instant, Instant, PointConsumer)
+     */
+    public List<RatePoint> rangeQuery(String currency, Instant from, Instant to) {
+        List<RatePoint> points = new ArrayList<>();
+        rangeQuery(currency, from, to, (time, rate) -> points.add(new RatePoint(Instant.ofEpochMilli(time), rate)));
+        return points;
+    }
+
+    /**
+     * Returns the snapshot that was the latest at a point in time.
+     *
+     * @param instant The point in time
+     * @return The latest snapshot fetched at or before {@code instant}, or {@code null} if there is none.
+     *         Its sequence number is its position in this history, starting at {@code 1}
+     */
+    public RatesSnapshot asOf(Instant instant) {
+        long time = instant.toEpochMilli();
+        List<HistorySegment> current = segments;
+        int segmentIndex = current.size() - 1;
+        while (segmentIndex >= 0 && current.get(segmentIndex).getMinTime() > time) {
+            segmentIndex--;
+        }
+        if (segmentIndex < 0) {
+            return null;
+        }
+        HistorySegment segment = current.get(segmentIndex);
+
+        HistorySegment.TimeCursor times = segment.times();
+        int row = -1;
+        long rowTime = 0;
+        for (int i = 0; i < segment.getRowCount(); i++) {
+            long nextTime = times.next();
+            if (nextTime > time) {
+                break;
+            }
+            row = i;
+            rowTime = nextTime;
+        }
+
+        RateTable.Builder rates = new RateTable.Builder(baseCurrency);
+        List<CurrencyId> currencies = segment.getCurrencies();
+        for (int column = 0; column < currencies.size(); column++) {
+            HistorySegment.RateCursor cursor = segment.rates(column);
+            double rate = Double.NaN;
+            for (int i = 0; i <= row; i++) {
+                rate = cursor.next();
+            }
+            if (!Double.isNaN(rate)) {
+                rates.put(currencies.get(column), rate);
+            }
+        }
+        long position = row + 1;
+        for (int i = 0; i < segmentIndex; i++) {
+            position += current.get(i).getRowCount();
+        }
+        return new RatesSnapshot(rates.build(), Instant.ofEpochMilli(rowTime), position);
+    }
+
+    /**
+     * Receives rates from a range query, without boxing them.
+     */
+    @FunctionalInterface
+    public interface PointConsumer {
+        /**
+         * Called once for every rate in the queried time span.
+         *
+         * @param epochMillis When the rate was fetched, in milliseconds since the epoch
+         * @param rate        The rate
+         */
+        void accept(long epochMillis, double rate);
+    }
+
+    /**
+     * A single recorded rate.
+     */
+    public static final class RatePoint {
+        private final Instant fetchedAt;
+        private final double rate;
+
+        /**
+         * Creates the point.
+         *
+         * @param fetchedAt When the rate was fetched
+         * @param rate      The rate
+         */
+        RatePoint(Instant fetchedAt, double rate) {
+            this.fetchedAt = fetchedAt;
+            this.rate = rate;
+        }
+
+        /**
+         * Returns when the rate was fetched.
+         *
+         * @return When the rate was fetched
+         */
+        public Instant getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * Returns the rate.
+         *
+         * @return The rate
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        @Override
+        public String toString() {
+            return fetchedAt + "=" + rate;
+        }
+    }
+}
@@ -1,34 +1,117 @@
 package currencyexchanger;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Manager class that periodically retrieves the latest exchange rates,
- * using the <a href="https://freecurrencyapi.com/">https://freecurrencyapi.com/</a> API.
+ * using the <a href="https://freecurrencyapi.com/">https://freecurrencyapi.com/</a> API, or any other {@link RateSource}.
+ * <p>
+ * Besides the base currency & currencies set in the {@link Builder}, a manager can run any amount of extra
+ * {@link #subscribe(String, Collection, long, TimeUnit, RatesUpdateListener) subscriptions}, each with their own
+ * base currency, currencies & interval. All managers share one scheduler thread, & subscriptions that are due
+ * at the same time share one upstream request per base currency.
+ * <p>
+ * Managers on different nodes can run as a {@link Builder#setFleet(LeaderLock, InetSocketAddress) fleet},
+ * where only the elected leader retrieves rates, & shares them with the other nodes.
  *
  * @see Builder
  */
 public class RatesManager {
     private static final Logger LOGGER = Logger.getLogger(RatesManager.class.getName());
+    private static final String DEFAULT_BASE_CURRENCY = "USD";
 
-    private final ScheduledExecutorService scheduler;
-    private final Collection<RatesUpdateListener> listeners;
+    /**
+     * The longest time ahead of schedule a subscription can be updated,
+     * so it can share a request with other subscriptions that are due.
+     */
+    private static final long GROUPING_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Below this fraction of the API quota left, intervals are stretched to make the rest of the quota last longer.
+     */
+    private static final double LOW_QUOTA_FRACTION = 0.1;
+
+    /**
+     * The most an interval is stretched when the API quota is running out.
+     */
+    private static final double MAX_INTERVAL_STRETCH = 10;
+
+    /**
+     * The most threads the default listener executor delivers on. Deliveries beyond this queue up,
+     * which only ever delays them, as each listener has at most one delivery queued.
+     */
+    private static final int MAX_LISTENER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
 
-    private final ApiWrapper api;
-    private final String baseCurrency;
-    private final Collection<String> currencies;
+    /**
+     * How long an idle thread of the default listener executor is kept.
+     */
+    private static final long LISTENER_THREAD_KEEP_ALIVE_SECONDS = 60;
 
-    private ScheduledFuture<?> updateTask;
+    private static final AtomicInteger LISTENER_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService DEFAULT_LISTENER_EXECUTOR = newDefaultListenerExecutor();
+
+    /**
+     * How long the thread electing the leader of a fleet is kept while no elections are due.
+     */
+    private static final long FLEET_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final AtomicInteger FLEET_THREAD_COUNT = new AtomicInteger();
+
+    private static ScheduledExecutorService sharedScheduler = null;
+    private static int sharedSchedulerUsers = 0;
+
+    private final RatesMetrics metrics;
+    private final Executor listenerExecutor;
+    private final RatesSubscription defaultSubscription;
+    private final List<RatesSubscription> scheduled;
+
+    private final RateSource source;
+    private final FetchCoordinator coordinator;
+    private final SnapshotStore snapshotStore;
+    private final Path historyDirectory;
+    private final Map<String, RatesHistory> histories;
+    private final LeaderLock leaderLock;
+    private final InetSocketAddress fleetGroup;
+    private final NetworkInterface fleetInterface;
+    private final ExecutorService fleetExecutor;
+    private final AtomicBoolean electionPending;
+    private final Map<String, RateTable> receivedRates;
+    private final SharedRatesWriter sharedMemory;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> nextTick;
+    private SnapshotMulticast fleet;
+    private volatile boolean leading;
 
     /**
      * Creates the manager.
@@ -36,39 +119,278 @@ public class RatesManager {
      * @param builder The configured builder to use when constructing the manager.
      */
     private RatesManager(Builder builder) {
-        this.scheduler = Executors.newScheduledThreadPool(1);
-        this.listeners = new HashSet<>();
+        this.metrics = new RatesMetrics(this::stalenessMillis);
+        this.listenerExecutor = builder.listenerExecutor;
+        this.defaultSubscription = new RatesSubscription(
+                this,
+                builder.baseCurrency,
+                builder.currencies,
+                listenerExecutor
+        );
+        this.scheduled = new ArrayList<>();
+
+        this.source = builder.rateSource != null ? builder.rateSource : new ApiWrapper(
+                builder.apiKey,
+                builder.apiUrl,
+                builder.connectTimeout,
+                builder.requestTimeout,
+                metrics
+        );
+        this.coordinator = builder.coalesceRequests ? FetchCoordinator.shared() : new FetchCoordinator();
+        this.snapshotStore = builder.snapshotDirectory == null ? null : new SnapshotStore(builder.snapshotDirectory);
+        this.historyDirectory = builder.historyDirectory;
+        this.histories = new ConcurrentHashMap<>();
+        this.leaderLock = builder.leaderLock;
+        this.fleetGroup = builder.fleetGroup;
+        this.fleetInterface = builder.fleetInterface;
+        this.fleetExecutor = leaderLock == null ? null : newFleetExecutor();
+        this.electionPending = new AtomicBoolean();
+        this.receivedRates = new ConcurrentHashMap<>();
+        this.sharedMemory = openSharedMemory(builder.sharedMemoryFile, builder.sharedMemoryCapacity);
 
-        this.api = new ApiWrapper(builder.apiKey);
-        this.baseCurrency = builder.baseCurrency == null || builder.baseCurrency.isBlank() ? null : builder.baseCurrency;
-        this.currencies = builder.currencies == null || builder.currencies.isEmpty() ? null : builder.currencies;
+        this.scheduler = null;
+        this.nextTick = null;
+        this.fleet = null;
+        this.leading = false;
 
-        this.updateTask = null;
+        restoreSnapshot(defaultSubscription);
     }
 
     /**
-     * Adds a listener to listen for updated exchange rates.
+     * Adds a listener to listen for updated exchange rates. Can be called from any thread.
      *
      * @param listener the listener to add
      */
     public void addListener(RatesUpdateListener listener) {
-        this.listeners.add(listener);
+        defaultSubscription.addListener(listener);
+    }
+
+    /**
+     * Removes a listener, so it no longer receives updated exchange rates. Can be called from any thread.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(RatesUpdateListener listener) {
+        defaultSubscription.removeListener(listener);
+    }
+
+    /**
+     * Adds a listener to listen for changes in exchange rates. Can be called from any thread.
+     * The listener only receives the rates that changed by at least {@code minRelativeChange}
+     * since the listener was last notified of them, & isn't called at all if none did.
+     *
+     * @param listener          the listener to add
+     * @param minRelativeChange The smallest relative change to notify the listener of, in either direction.
+     *                          {@code 0.001} ignores changes smaller than 0.1%, & {@code 0} includes all changes
+     * @throws IllegalArgumentException If {@code minRelativeChange} is negative or {@code NaN}
+     * @see RatesSubscription#addDeltaListener(RatesDeltaListener, double)
+     */
+    public void addDeltaListener(RatesDeltaListener listener, double minRelativeChange) {
+        defaultSubscription.addDeltaListener(listener, minRelativeChange);
+    }
+
+    /**
+     * Removes a delta listener, so it no longer receives changes in exchange rates. Can be called from any thread.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeDeltaListener(RatesDeltaListener listener) {
+        defaultSubscription.removeDeltaListener(listener);
+    }
+
+    /**
+     * Returns the latest rates retrieved by this manager. This never blocks,
+     * & is safe to call from any thread as often as needed.
+     *
+     * @return The latest snapshot of rates, or {@code null} if no rates have been retrieved yet
+     */
+    public RatesSnapshot latest() {
+        return defaultSubscription.latest();
+    }
+
+    /**
+     * Returns a publisher of the snapshots retrieved by this manager, with demand signalled by its subscribers.
+     *
+     * @return A publisher of the snapshots retrieved by this manager
+     * @see RatesSubscription#publisher(Collection)
+     */
+    public Flow.Publisher<RatesSnapshot> publisher() {
+        return defaultSubscription.publisher();
+    }
+
+    /**
+     * Returns a publisher of the snapshots retrieved by this manager, with only some of their currencies.
+     * Slow subscribers skip straight to the newest snapshot, instead of having snapshots buffered for them.
+     *
+     * @param currencies The currencies to include in published snapshots. If {@code null} or empty,
+     *                   all currencies are included
+     * @return A publisher of the snapshots retrieved by this manager
+     * @see RatesSubscription#publisher(Collection)
+     */
+    public Flow.Publisher<RatesSnapshot> publisher(Collection<String> currencies) {
+        return defaultSubscription.publisher(currencies);
+    }
+
+    /**
+     * Returns the metrics of this manager, which can be read at any time, or registered with JMX.
+     *
+     * @return The metrics of this manager
+     */
+    public RatesMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns how old the stalest rates of any scheduled subscription are.
+     *
+     * @return The time since the stalest scheduled subscription last received rates, in milliseconds,
+     *         or {@code -1} if no scheduled subscription has received rates yet
+     */
+    private synchronized long stalenessMillis() {
+        long now = System.currentTimeMillis();
+        long staleness = -1;
+        for (RatesSubscription subscription : scheduled) {
+            RatesSnapshot snapshot = subscription.latest();
+            if (snapshot != null) {
+                staleness = Math.max(staleness, now - snapshot.getFetchedAt().toEpochMilli());
+            }
+        }
+        return staleness;
+    }
+
+    /**
+     * Publishes newly retrieved rates as the latest snapshot, & notifies any listeners.
+     *
+     * @param rates     The newly retrieved rates
+     * @param fetchedAt When the rates were retrieved
+     */
+    void publish(RateTable rates, Instant fetchedAt) {
+        publish(defaultSubscription, rates, fetchedAt);
+    }
+
+    /**
+     * Publishes newly retrieved rates to a subscription, & saves the resulting snapshot if a snapshot store is used.
+     * Nothing is saved if the rates haven't changed.
+     *
+     * @param subscription The subscription to publish to
+     * @param rates        The newly retrieved rates
+     * @param fetchedAt    When the rates were retrieved
+     */
+    private void publish(RatesSubscription subscription, RateTable rates, Instant fetchedAt) {
+        RatesSnapshot snapshot = subscription.publish(rates, fetchedAt);
+        if (sharedMemory != null && subscription == defaultSubscription) {
+            RatesSnapshot latest = subscription.latest();
+            if (latest != null) {
+                sharedMemory.write(latest);
+            }
+        }
+        if (snapshot != null && snapshotStore != null) {
+            try {
+                snapshotStore.save(subscription.getBaseCurrency(), subscription.requestedCurrencies(), snapshot);
+            } catch (IOException ioe) {
+                LOGGER.log(Level.WARNING, "Saving a rates snapshot failed", ioe);
+            }
+        }
+    }
+
+    /**
+     * Maps the shared memory file to publish the latest rates into, if one is used.
+     *
+     * @param file     The file to publish the latest rates into, or {@code null} if none is used
+     * @param capacity The most currencies the file has room for
+     * @return The writer for the file, or {@code null} if none is used, or it can't be mapped
+     */
+    private static SharedRatesWriter openSharedMemory(Path file, int capacity) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new SharedRatesWriter(file, capacity);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Mapping the shared memory file failed", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the recorded history of rates fetched from a base currency.
+     *
+     * @param baseCurrency The base currency to get the history for. If {@code null} or blank, USD is used
+     * @return The history of rates fetched from {@code baseCurrency}
+     * @throws IllegalStateException If this manager wasn't built with a history directory
+     * @throws IOException If the history can't be read
+     * @see Builder#setHistoryDirectory(Path)
+     */
+    public RatesHistory history(String baseCurrency) throws IOException {
+        if (historyDirectory == null) {
+            throw new IllegalStateException("This RatesManager doesn't record a history");
+        }
+        String base = (baseCurrency == null || baseCurrency.isBlank() ? DEFAULT_BASE_CURRENCY : baseCurrency)
+                .trim().toUpperCase(Locale.ROOT);
+        RatesHistory history = histories.get(base);
+        if (history == null) {
+            synchronized (histories) {
+                history = histories.get(base);
+                if (history == null) {
+                    history = RatesHistory.open(historyDirectory.resolve(base), base);
+                    histories.put(base, history);
+                }
+            }
+        }
+        return history;
     }
 
     /**
-     * Called periodically to retrieve updated rates and notify any listeners.
+     * Appends newly retrieved rates to the history of their base currency, if a history directory is used.
+     *
+     * @param baseCurrency The base currency of the rates
+     * @param rates        The newly retrieved rates
+     * @param fetchedAt    When the rates were retrieved
      */
-    private void updateRates() {
+    private void record(String baseCurrency, RateTable rates, Instant fetchedAt) {
+        if (historyDirectory == null) {
+            return;
+        }
         try {
-            Map<String, Double> rates = api.requestLatestRates(baseCurrency, currencies);
-            listeners.forEach(listener -> listener.onUpdate(rates));
-        } catch (ApiWrapper.RequestFailedException rfe) {
-            LOGGER.log(Level.WARNING, "A request for updating rates failed", rfe);
+            history(baseCurrency).append(rates, fetchedAt);
         } catch (IOException ioe) {
-            LOGGER.log(Level.WARNING, "Updating rates failed due to an IOException", ioe);
+            LOGGER.log(Level.WARNING, "Recording rates in the history failed", ioe);
         }
     }
 
+    /**
+     * Restores the snapshot saved for a subscription by a previous run, if a snapshot store is used.
+     *
+     * @param subscription The subscription to restore the snapshot of
+     */
+    private void restoreSnapshot(RatesSubscription subscription) {
+        if (snapshotStore == null) {
+            return;
+        }
+        try {
+            RatesSnapshot snapshot = snapshotStore.load(
+                    subscription.getBaseCurrency(),
+                    subscription.requestedCurrencies()
+            );
+            if (snapshot != null && subscription.restore(snapshot)
+                    && sharedMemory != null && subscription == defaultSubscription) {
+                sharedMemory.write(subscription.latest());
+            }
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Loading a saved rates snapshot failed", ioe);
+        }
+    }
+
+    /**
+     * Retrieves updated rates for the default subscription, & queues them for delivery to any listeners,
+     * the same way a scheduled update does. Blocks until the rates are published, or the update failed.
+     */
+    void updateRates() {
+        updateGroup(defaultSubscription.getBaseCurrency(), List.of(defaultSubscription))
+                .handle((rates, failure) -> null)
+                .join();
+    }
+
     /**
      * Start retrieving exchange rate updates.
      *
@@ -76,25 +398,457 @@ public class RatesManager {
      * @param timeUnit     The unit of time that {@code intervalTime} is specified in
      * @throws IllegalStateException If this {@link RatesManager} is already running
      */
-    public void start(long intervalTime, TimeUnit timeUnit) {
-        if (updateTask != null) {
+    public synchronized void start(long intervalTime, TimeUnit timeUnit) {
+        if (defaultSubscription.isActive()) {
             throw new IllegalStateException("This RatesManager is already running");
         }
-        this.updateTask = scheduler.scheduleAtFixedRate(this::updateRates, 0, intervalTime, timeUnit);
+        schedule(defaultSubscription, intervalTime, timeUnit);
     }
 
     /**
      * Stop retrieving exchange rate updates. If an update is happening as this is called,
-     * the update will finish, but no further updates will happen.
+     * the update will finish, but no further updates will happen. Subscriptions are not affected.
      *
      * @throws IllegalStateException If this {@link RatesManager} is already stopped
      */
-    public void stop() {
-        if (updateTask == null) {
-            throw new IllegalStateException("This RatesManager is already stopped");
+    public synchronized void stop() {
+        unschedule(defaultSubscription, true);
+    }
+
+    /**
+     * Subscribes to periodic exchange rate updates, for a base currency & currencies other than
+     * the ones this manager was built with. The subscription starts right away.
+     *
+     * @param baseCurrency The base currency to get exchange rates for. If {@code null} or blank, USD is used
+     * @param currencies   The currencies to get the exchange rate to. If {@code null} or empty, all currencies are used
+     * @param intervalTime The amount of time between each update
+     * @param timeUnit     The unit of time that {@code intervalTime} is specified in
+     * @param listener     A listener to receive the updated rates. More can be added to the returned subscription
+     * @return The subscription, which can be used to cancel it
+     */
+    public synchronized RatesSubscription subscribe(
+            String baseCurrency,
+            Collection<String> currencies,
+            long intervalTime,
+            TimeUnit timeUnit,
+            RatesUpdateListener listener
+    ) {
+        RatesSubscription subscription = new RatesSubscription(this, baseCurrency, currencies, listenerExecutor);
+        subscription.addListener(listener);
+        restoreSnapshot(subscription);
+        schedule(subscription, intervalTime, timeUnit);
+        return subscription;
+    }
+
+    /**
+     * Schedules a subscription, with its first update due immediately. If the subscription has
+     * a restored snapshot, it's delivered to the listeners before the first update.
+     *
+     * @param subscription The subscription to schedule
+     * @param intervalTime The amount of time between each update
+     * @param timeUnit     The unit of time that {@code intervalTime} is specified in
+     * @throws IllegalArgumentException If {@code intervalTime} isn't positive
+     */
+    private synchronized void schedule(RatesSubscription subscription, long intervalTime, TimeUnit timeUnit) {
+        if (intervalTime <= 0) {
+            throw new IllegalArgumentException("The interval time must be positive");
+        }
+        subscription.activate(timeUnit.toNanos(intervalTime), System.nanoTime());
+        scheduled.add(subscription);
+        if (scheduler == null) {
+            scheduler = acquireSharedScheduler();
+            joinFleet();
+        }
+        subscription.redeliverLatest();
+        scheduleNextTick();
+    }
+
+    /**
+     * Unschedules a subscription. Once no subscriptions are scheduled,
+     * this manager stops using the shared scheduler.
+     *
+     * @param subscription    The subscription to unschedule
+     * @param throwIfInactive Whether to throw if the subscription isn't scheduled, instead of doing nothing
+     * @throws IllegalStateException If {@code throwIfInactive} is {@code true}, & the subscription isn't scheduled
+     */
+    synchronized void unschedule(RatesSubscription subscription, boolean throwIfInactive) {
+        if (!subscription.isActive()) {
+            if (throwIfInactive) {
+                throw new IllegalStateException("This RatesManager is already stopped");
+            }
+            return;
+        }
+        subscription.deactivate();
+        scheduled.remove(subscription);
+        if (scheduled.isEmpty()) {
+            nextTick.cancel(false);
+            nextTick = null;
+            scheduler = null;
+            releaseSharedScheduler();
+            leaveFleet();
+        } else {
+            scheduleNextTick();
+        }
+    }
+
+    /**
+     * Creates the executor listeners are delivered to on, if no other executor is set.
+     * It has at most {@link #MAX_LISTENER_THREADS} threads, & queues deliveries once they're all busy,
+     * so a burst of updates to many listeners can't create a thread per listener.
+     *
+     * @return The created executor
+     */
+    private static ExecutorService newDefaultListenerExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_LISTENER_THREADS,
+                MAX_LISTENER_THREADS,
+                LISTENER_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, "RatesManager-listener-" + LISTENER_THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the executor the leader of a fleet is elected on, so a slow or unreachable leader lock
+     * never holds up the shared scheduler. It runs one task at a time, in order, on a thread that's only kept
+     * while elections are due.
+     *
+     * @return The created executor
+     */
+    private static ExecutorService newFleetExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1,
+                1,
+                FLEET_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, "RatesManager-fleet-" + FLEET_THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts taking part in the fleet, if this manager is part of one, by joining its multicast group.
+     * If the group can't be joined, this manager can still be elected leader, but can't share rates.
+     */
+    private synchronized void joinFleet() {
+        if (leaderLock == null) {
+            return;
+        }
+        try {
+            fleet = new SnapshotMulticast(fleetGroup, fleetInterface, this::receive);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Joining the fleet's multicast group failed", ioe);
+        }
+    }
+
+    /**
+     * Stops taking part in the fleet, giving up leadership so another node can take over.
+     * The leader lock is released on the fleet executor, after any election still pending.
+     */
+    private synchronized void leaveFleet() {
+        if (leaderLock == null) {
+            return;
+        }
+        try {
+            if (fleet != null) {
+                fleet.close();
+            }
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Leaving the fleet's multicast group failed", ioe);
+        }
+        fleet = null;
+        leading = false;
+        fleetExecutor.execute(() -> {
+            try {
+                leaderLock.release();
+            } catch (IOException ioe) {
+                LOGGER.log(Level.WARNING, "Releasing the fleet's leader lock failed", ioe);
+            }
+            leading = false;
+        });
+    }
+
+    /**
+     * Starts an election on the fleet executor, unless one is already pending,
+     * so the outcome is known by the next tick. Does nothing if this manager isn't part of a fleet.
+     */
+    private void elect() {
+        if (leaderLock != null && electionPending.compareAndSet(false, true)) {
+            fleetExecutor.execute(() -> {
+                electionPending.set(false);
+                lead();
+            });
+        }
+    }
+
+    /**
+     * Tries to become, or stay, the leader of the fleet. Only runs on the fleet executor,
+     * as reaching the leader lock can take arbitrarily long.
+     */
+    private void lead() {
+        boolean nowLeading;
+        try {
+            nowLeading = leaderLock.tryAcquire();
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Reaching the fleet's leader lock failed", ioe);
+            nowLeading = false;
+        }
+        if (nowLeading != leading) {
+            LOGGER.log(Level.INFO, nowLeading ? "Became the leader of the fleet" : "Stopped being the leader of the fleet");
+            leading = nowLeading;
+        }
+    }
+
+    /**
+     * Shares rates retrieved by the leader with the rest of the fleet.
+     *
+     * @param rates     The retrieved rates
+     * @param fetchedAt When the rates were retrieved
+     */
+    private void broadcast(RateTable rates, Instant fetchedAt) {
+        SnapshotMulticast current;
+        synchronized (this) {
+            current = fleet;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            current.send(new RatesSnapshot(rates, fetchedAt, 0));
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Sharing rates with the fleet failed", ioe);
+        }
+    }
+
+    /**
+     * Publishes rates shared by the leader of the fleet to every scheduled subscription they cover,
+     * & records that they were covered, so they skip their next update.
+     * Rates identical to the previous ones received for the same base currency are published as the same table,
+     * so they count as unchanged. Ignored while this manager is the leader, as it receives its own rates too.
+     *
+     * @param snapshot The rates shared by the leader
+     */
+    private void receive(RatesSnapshot snapshot) {
+        if (leading) {
+            return;
+        }
+        RateTable received = snapshot.getRates();
+        String baseCurrency = received.getBaseCurrency().code();
+        RateTable rates = receivedRates.merge(
+                baseCurrency,
+                received,
+                (previous, next) -> previous.hasSameRates(next) ? previous : next
+        );
+
+        List<RatesSubscription> covered = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (RatesSubscription subscription : scheduled) {
+                Set<String> currencies = subscription.requestedCurrencies();
+                if (subscription.getBaseCurrency().equals(baseCurrency) && (currencies == null
+                        || currencies.stream().allMatch(currency -> rates.contains(CurrencyId.of(currency))))) {
+                    subscription.sharedByFleet(now);
+                    covered.add(subscription);
+                }
+            }
+        }
+        if (covered.isEmpty()) {
+            return;
+        }
+        record(baseCurrency, rates, snapshot.getFetchedAt());
+        for (RatesSubscription subscription : covered) {
+            publish(subscription, rates, snapshot.getFetchedAt());
+        }
+    }
+
+    /**
+     * Replaces the pending tick with one that runs when the earliest scheduled subscription is due.
+     */
+    private synchronized void scheduleNextTick() {
+        if (nextTick != null) {
+            nextTick.cancel(false);
+        }
+        long now = System.nanoTime();
+        long earliestDelay = Long.MAX_VALUE;
+        for (RatesSubscription subscription : scheduled) {
+            earliestDelay = Math.min(earliestDelay, subscription.getNextDueNanos() - now);
+        }
+        nextTick = scheduler.schedule(this::tick, Math.max(0, earliestDelay), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs on the shared scheduler whenever a subscription is due. Claims every subscription that's due,
+     * groups them by base currency, & sends one request per group for the union of their currencies.
+     * The requests are sent asynchronously, so the scheduler thread is never blocked by them.
+     * In a fleet, the other nodes skip the subscriptions the leader recently shared rates for, & only send requests
+     * for the rest, such as those for currencies the leader doesn't retrieve, or when its rates aren't arriving.
+     * Whether this node leads is decided by the latest election, & every tick with updates due starts
+     * the next one on the fleet executor, so the leader lock is never reached from the scheduler thread.
+     * <p>
+     * Once a request completes, the next update of each subscription in its group is rescheduled:
+     * failed updates are retried with a randomized exponential backoff, & successful updates are spaced further
+     * apart while the API quota is running low.
+     */
+    private void tick() {
+        Map<String, List<RatesSubscription>> dueByBase = new LinkedHashMap<>();
+        synchronized (this) {
+            if (scheduled.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (RatesSubscription subscription : scheduled) {
+                if (subscription.claimIfDue(now, GROUPING_WINDOW_NANOS)) {
+                    dueByBase.computeIfAbsent(subscription.getBaseCurrency(), base -> new ArrayList<>())
+                            .add(subscription);
+                }
+            }
+            if (!dueByBase.isEmpty()) {
+                elect();
+            }
+            if (!dueByBase.isEmpty() && leaderLock != null && !leading) {
+                Iterator<List<RatesSubscription>> groups = dueByBase.values().iterator();
+                while (groups.hasNext()) {
+                    List<RatesSubscription> group = groups.next();
+                    Iterator<RatesSubscription> subscriptions = group.iterator();
+                    while (subscriptions.hasNext()) {
+                        RatesSubscription subscription = subscriptions.next();
+                        if (subscription.isCoveredByFleet(now)) {
+                            subscription.updateSucceeded(1);
+                            subscriptions.remove();
+                        }
+                    }
+                    if (group.isEmpty()) {
+                        groups.remove();
+                    }
+                }
+            }
+            for (List<RatesSubscription> group : dueByBase.values()) {
+                if (group.stream().anyMatch(RatesSubscription::isRetrying)) {
+                    metrics.recordRetry();
+                }
+            }
+            nextTick = null;
+            scheduleNextTick();
+        }
+        dueByBase.forEach(this::updateGroup);
+    }
+
+    /**
+     * Retrieves updated rates for a group of subscriptions with the same base currency, & publishes them to each.
+     *
+     * @param baseCurrency  The base currency of the subscriptions
+     * @param subscriptions The subscriptions to update
+     * @return A future that completes once the rates are published, or exceptionally if retrieving them failed
+     */
+    private CompletableFuture<RateTable> updateGroup(String baseCurrency, List<RatesSubscription> subscriptions) {
+        Set<String> currencies = new HashSet<>();
+        for (RatesSubscription subscription : subscriptions) {
+            if (subscription.requestedCurrencies() == null) {
+                currencies = null;
+                break;
+            }
+            currencies.addAll(subscription.requestedCurrencies());
+        }
+        Set<String> requestedCurrencies = currencies;
+        return coordinator.fetchAsync(source, baseCurrency, requestedCurrencies).whenComplete((rates, failure) -> {
+            synchronized (this) {
+                long now = System.nanoTime();
+                double stretch = quotaStretch();
+                for (RatesSubscription subscription : subscriptions) {
+                    if (failure == null) {
+                        subscription.updateSucceeded(stretch);
+                    } else {
+                        subscription.updateFailed(now, source.retryAfterNanos(now));
+                    }
+                }
+                if (!scheduled.isEmpty()) {
+                    scheduleNextTick();
+                }
+            }
+            if (failure != null) {
+                metrics.recordFailure();
+                logFailure(failure instanceof CompletionException ? failure.getCause() : failure);
+                return;
+            }
+            metrics.recordSuccess();
+            Instant fetchedAt = Instant.now();
+            if (leading) {
+                broadcast(rates, fetchedAt);
+            }
+            record(baseCurrency, rates, fetchedAt);
+            for (RatesSubscription subscription : subscriptions) {
+                publish(subscription, rates, fetchedAt);
+            }
+        });
+    }
+
+    /**
+     * Returns how much to stretch intervals by, to make the rest of the quota of the rate source last longer.
+     * Intervals aren't stretched until less than {@value #LOW_QUOTA_FRACTION} of the quota is left,
+     * & are stretched more the less is left.
+     *
+     * @return How many intervals to wait between updates, from {@code 1} up to {@value #MAX_INTERVAL_STRETCH}
+     */
+    private double quotaStretch() {
+        double remaining = source.remainingQuotaFraction();
+        if (remaining >= LOW_QUOTA_FRACTION) {
+            return 1;
+        }
+        return remaining <= LOW_QUOTA_FRACTION / MAX_INTERVAL_STRETCH
+                ? MAX_INTERVAL_STRETCH
+                : LOW_QUOTA_FRACTION / remaining;
+    }
+
+    /**
+     * Logs a failed rates update.
+     *
+     * @param failure The cause of the failure
+     */
+    private static void logFailure(Throwable failure) {
+        if (failure instanceof ApiWrapper.RequestFailedException) {
+            LOGGER.log(Level.WARNING, "A request for updating rates failed", failure);
+        } else if (failure instanceof IOException) {
+            LOGGER.log(Level.WARNING, "Updating rates failed due to an IOException", failure);
+        } else {
+            LOGGER.log(Level.WARNING, "Updating rates failed unexpectedly", failure);
+        }
+    }
+
+    /**
+     * Returns the scheduler shared by all managers, creating it if no manager is using it.
+     *
+     * @return The shared scheduler
+     */
+    private static synchronized ScheduledExecutorService acquireSharedScheduler() {
+        if (sharedScheduler == null) {
+            sharedScheduler = Executors.newSingleThreadScheduledExecutor(task -> new Thread(task, "RatesManager-scheduler"));
+        }
+        sharedSchedulerUsers++;
+        return sharedScheduler;
+    }
+
+    /**
+     * Stops using the shared scheduler. Once no manager is using it, it's shut down, so its thread doesn't linger.
+     */
+    private static synchronized void releaseSharedScheduler() {
+        sharedSchedulerUsers--;
+        if (sharedSchedulerUsers == 0) {
+            sharedScheduler.shutdown();
+            sharedScheduler = null;
         }
-        updateTask.cancel(false);
-        this.updateTask = null;
     }
 
     /**
@@ -102,9 +856,22 @@ public class RatesManager {
      */
     public static class Builder {
         private final String apiKey;
+        private final RateSource rateSource;
 
+        private String apiUrl;
+        private Duration connectTimeout;
+        private Duration requestTimeout;
         private String baseCurrency;
         private Collection<String> currencies;
+        private boolean coalesceRequests;
+        private Path snapshotDirectory;
+        private Path historyDirectory;
+        private Executor listenerExecutor;
+        private LeaderLock leaderLock;
+        private InetSocketAddress fleetGroup;
+        private NetworkInterface fleetInterface;
+        private Path sharedMemoryFile;
+        private int sharedMemoryCapacity;
 
         /**
          * Creates the builder.
@@ -113,10 +880,45 @@ public class RatesManager {
          *               https://freecurrencyapi.com/</a> API
          */
         public Builder(String apiKey) {
+            this(apiKey, null);
+        }
+
+        /**
+         * Creates a builder for a manager that retrieves rates from {@code rateSource}, instead of freecurrencyapi.
+         * The API URL & timeouts don't apply to managers built this way.
+         *
+         * @param rateSource The source to retrieve rates from
+         * @see ReplayRateSource
+         * @see HedgedRateSource
+         */
+        public Builder(RateSource rateSource) {
+            this(null, rateSource);
+        }
+
+        /**
+         * Creates the builder.
+         *
+         * @param apiKey     An API key for accessing freecurrencyapi, or {@code null} if {@code rateSource} is used
+         * @param rateSource The source to retrieve rates from, or {@code null} to use freecurrencyapi
+         */
+        private Builder(String apiKey, RateSource rateSource) {
             this.apiKey = apiKey;
+            this.rateSource = rateSource;
 
+            this.apiUrl = ApiWrapper.BASE_API_URL;
+            this.connectTimeout = HtmlRequester.DEFAULT_CONNECT_TIMEOUT;
+            this.requestTimeout = HtmlRequester.DEFAULT_REQUEST_TIMEOUT;
             this.baseCurrency = null;
             this.currencies = null;
+            this.coalesceRequests = true;
+            this.snapshotDirectory = null;
+            this.historyDirectory = null;
+            this.listenerExecutor = DEFAULT_LISTENER_EXECUTOR;
+            this.leaderLock = null;
+            this.fleetGroup = null;
+            this.fleetInterface = null;
+            this.sharedMemoryFile = null;
+            this.sharedMemoryCapacity = 0;
         }
 
         /**
@@ -128,6 +930,44 @@ public class RatesManager {
             return new RatesManager(this);
         }
 
+        /**
+         * Sets the base URL of the API to retrieve rates from. The API must have the same endpoints & response format
+         * as freecurrencyapi, such as a {@link RatesServer} run by another manager.
+         * If no API URL is set, freecurrencyapi is used.
+         *
+         * @param apiUrl The base URL of the API, ending with a {@code /}
+         * @return The builder
+         * @see RatesServer#getBaseUrl()
+         */
+        public Builder setApiUrl(String apiUrl) {
+            this.apiUrl = apiUrl;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time to wait for a connection to the API to be established.
+         * If no connect timeout is set, 5 seconds is used.
+         *
+         * @param connectTimeout The connect timeout to use
+         * @return The builder
+         */
+        public Builder setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time to wait for a response from the API, after sending a request.
+         * If no request timeout is set, 5 seconds is used.
+         *
+         * @param requestTimeout The request timeout to use
+         * @return The builder
+         */
+        public Builder setRequestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
         /**
          * Sets the base currency to be used when retrieving currency updates.
          * If no base currency is set, USD will be used as the base currency.
@@ -153,5 +993,124 @@ public class RatesManager {
             this.currencies = Set.of(currencies);
             return this;
         }
+
+        /**
+         * Sets whether requests should be merged with concurrent requests from other managers in this JVM.
+         * When enabled, a request for the same base currency, & the same or fewer currencies as a request that's
+         * already in flight, waits for that request instead of sending its own. Enabled by default.
+         *
+         * @param coalesceRequests Whether requests should be merged with concurrent requests from other managers
+         * @return The builder
+         */
+        public Builder setCoalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * Sets a directory to keep the latest rates in, so they survive restarts. After every successful update,
+         * the rates are saved to this directory. When the manager is built, or a subscription is made,
+         * any rates saved by a previous run are loaded, & returned by {@code latest()} until fresh rates arrive.
+         * They're also delivered to listeners as soon as the manager or subscription starts.
+         * If no directory is set, rates are not saved.
+         *
+         * @param snapshotDirectory The directory to keep the latest rates in
+         * @return The builder
+         */
+        public Builder setSnapshotDirectory(Path snapshotDirectory) {
+            this.snapshotDirectory = snapshotDirectory;
+            return this;
+        }
+
+        /**
+         * Sets a directory to record the history of all retrieved rates in. After every successful update,
+         * the rates are appended to the history of their base currency, which can be queried through
+         * {@link RatesManager#history(String)}. If no directory is set, no history is recorded.
+         *
+         * @param historyDirectory The directory to record the history of rates in
+         * @return The builder
+         */
+        public Builder setHistoryDirectory(Path historyDirectory) {
+            this.historyDirectory = historyDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the executor to deliver updated rates to listeners on. Each listener is delivered to separately,
+         * with at most one delivery per listener running at a time. If no executor is set, a shared pool of
+         * daemon threads is used, with at most twice as many threads as there are processors, & no fewer than 4.
+         * Once they're all busy, further deliveries wait for one to finish,
+         * so listeners that block for long should be given an executor of their own.
+         * {@code Runnable::run} delivers on the thread that retrieved the rates.
+         *
+         * @param listenerExecutor The executor to deliver updated rates to listeners on
+         * @return The builder
+         */
+        public Builder setListenerExecutor(Executor listenerExecutor) {
+            this.listenerExecutor = listenerExecutor;
+            return this;
+        }
+
+        /**
+         * Makes the manager part of a fleet of managers, where only one node retrieves rates from upstream,
+         * so upstream load stays the same however many nodes there are.
+         * <p>
+         * Every time rates are due, each node tries to acquire {@code leaderLock} in the background,
+         * on a thread of its own, & the outcome applies from its next update on. The node holding it retrieves
+         * rates as usual, & sends them to {@code multicastGroup}. The other nodes publish the rates they receive
+         * from the group to their own listeners instead, as long as the rates cover the base currency & currencies
+         * they subscribe to. They only skip retrieving rates for subscriptions covered within the last interval,
+         * & retrieve the rest themselves, such as when the leader doesn't retrieve those currencies, or its rates
+         * are too large to share, or don't arrive. If the leader stops, the other nodes retrieve
+         * rates themselves once its rates stop arriving, & another node acquires the lock the next time its rates
+         * are due, so leads within two intervals.
+         * If no fleet is set, the manager always retrieves rates itself.
+         *
+         * @param leaderLock     The lock that elects the leader, shared by every node
+         * @param multicastGroup The multicast group & port the leader sends rates to, shared by every node.
+         *                       Must only be reachable by trusted nodes
+         * @return The builder
+         * @see FileLeaderLock
+         */
+        public Builder setFleet(LeaderLock leaderLock, InetSocketAddress multicastGroup) {
+            this.leaderLock = leaderLock;
+            this.fleetGroup = multicastGroup;
+            return this;
+        }
+
+        /**
+         * Sets the network interface to send & receive the rates of the fleet on.
+         * If no interface is set, the first interface that's up & supports multicast is used.
+         *
+         * @param fleetInterface The network interface to use for the fleet
+         * @return The builder
+         * @see #setFleet(LeaderLock, InetSocketAddress)
+         */
+        public Builder setFleetInterface(NetworkInterface fleetInterface) {
+            this.fleetInterface = fleetInterface;
+            return this;
+        }
+
+        /**
+         * Sets a memory-mapped file to publish the latest rates into, for other processes on the same host to read
+         * through a {@link SharedRatesReader}, without locking, & without running their own manager.
+         * The file is written every time rates are retrieved, & has room for a fixed amount of currencies.
+         * Only one manager may publish into a file at a time. An existing file with another capacity is replaced,
+         * so readers of it must open the file again to see new rates. If no file is set, rates aren't published.
+         *
+         * @param sharedMemoryFile The file to publish the latest rates into, preferably on a memory-backed
+         *                         file system such as {@code /dev/shm}
+         * @param capacity         The most currencies the file has room for. Any further currencies are left out
+         * @return The builder
+         * @throws IllegalArgumentException If {@code capacity} isn't positive
+         */
+        public Builder setSharedMemoryFile(Path sharedMemoryFile, int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("The capacity must be positive");
+            }
+            this.sharedMemoryFile = sharedMemoryFile;
+            this.sharedMemoryCapacity = capacity;
+            return this;
+        }
     }
 }
@@ -0,0 +1,202 @@
+package currencyexchanger;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a {@link RatesManager}, covering its requests, parsing, listeners & how fresh its rates are.
+ * <p>
+ * Everything is recorded lock-free, with no allocation on the recording side. Metrics can be read at any time
+ * through the getters of this class, or through JMX once {@link #registerMBean(String) registered}.
+ * All metrics are cumulative since the manager was built.
+ *
+ * @see RatesManager#metrics()
+ */
+public final class RatesMetrics implements RatesMetricsMXBean {
+    private static final String DOMAIN = "currencyexchanger";
+
+    private final LatencyHistogram requestLatency;
+    private final LatencyHistogram parseTime;
+    private final LatencyHistogram dispatchTime;
+    private final LongAdder successes;
+    private final LongAdder failures;
+    private final LongAdder retries;
+    private final LongAdder notModified;
+    private final LongSupplier stalenessMillis;
+
+    private ObjectName registeredName;
+
+    /**
+     * Creates metrics that don't track staleness.
+     */
+    RatesMetrics() {
+        this(() -> -1);
+    }
+
+    /**
+     * Creates the metrics.
+     *
+     * @param stalenessMillis Supplies the current staleness, in milliseconds
+     */
+    RatesMetrics(LongSupplier stalenessMillis) {
+        this.requestLatency = new LatencyHistogram();
+        this.parseTime = new LatencyHistogram();
+        this.dispatchTime = new LatencyHistogram();
+        this.successes = new LongAdder();
+        this.failures = new LongAdder();
+        this.retries = new LongAdder();
+        this.notModified = new LongAdder();
+        this.stalenessMillis = stalenessMillis;
+
+        this.registeredName = null;
+    }
+
+    /**
+     * Returns the histogram request latencies are recorded into.
+     *
+     * @return The histogram request latencies are recorded into
+     */
+    LatencyHistogram requestLatencyHistogram() {
+        return requestLatency;
+    }
+
+    /**
+     * Records the time spent parsing a response.
+     *
+     * @param nanos The time spent, in nanoseconds
+     */
+    void recordParse(long nanos) {
+        parseTime.record(nanos);
+    }
+
+    /**
+     * Records the time a listener took to handle an update.
+     *
+     * @param nanos The time taken, in nanoseconds
+     */
+    void recordDispatch(long nanos) {
+        dispatchTime.record(nanos);
+    }
+
+    /**
+     * Records a successful update.
+     */
+    void recordSuccess() {
+        successes.increment();
+    }
+
+    /**
+     * Records a failed update.
+     */
+    void recordFailure() {
+        failures.increment();
+    }
+
+    /**
+     * Records an update that retries a failed update.
+     */
+    void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Records a response that showed the rates hadn't changed.
+     */
+    void recordNotModified() {
+        notModified.increment();
+    }
+
+    @Override
+    public LatencySummary getRequestLatency() {
+        return requestLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getParseTime() {
+        return parseTime.summary();
+    }
+
+    @Override
+    public LatencySummary getDispatchTime() {
+        return dispatchTime.summary();
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    @Override
+    public long getStalenessMillis() {
+        return stalenessMillis.getAsLong();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server,
+     * as {@code currencyexchanger:type=RatesManager,name=<name>}.
+     *
+     * @param name The name to register the metrics under, unique among managers
+     * @return The name the metrics were registered as
+     * @throws JMException If the metrics can't be registered, such as when the name is already taken
+     * @throws IllegalStateException If these metrics are already registered
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (registeredName != null) {
+            throw new IllegalStateException("These metrics are already registered as " + registeredName);
+        }
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=RatesManager,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server. Does nothing if they aren't registered.
+     *
+     * @throws JMException If the metrics can't be unregistered
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (registeredName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) {
+            server.unregisterMBean(registeredName);
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "requests[%s] parse[%s] dispatch[%s] successes=%d failures=%d retries=%d notModified=%d staleness=%dms",
+                getRequestLatency(),
+                getParseTime(),
+                getDispatchTime(),
+                getSuccessCount(),
+                getFailureCount(),
+                getRetryCount(),
+                getNotModifiedCount(),
+                getStalenessMillis()
+        );
+    }
+}
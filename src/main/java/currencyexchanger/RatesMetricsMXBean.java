@@ -0,0 +1,65 @@
+package currencyexchanger;
+
+/**
+ * JMX view of the {@link RatesMetrics} of a {@link RatesManager}.
+ *
+ * @see RatesMetrics#registerMBean(String)
+ */
+public interface RatesMetricsMXBean {
+    /**
+     * Returns the time from sending each request to the API, until its response was received.
+     *
+     * @return A summary of request latencies
+     */
+    LatencySummary getRequestLatency();
+
+    /**
+     * Returns the time spent parsing each successful response.
+     *
+     * @return A summary of parse times
+     */
+    LatencySummary getParseTime();
+
+    /**
+     * Returns the time each listener took to handle each update.
+     *
+     * @return A summary of listener dispatch times
+     */
+    LatencySummary getDispatchTime();
+
+    /**
+     * Returns the amount of successful updates.
+     *
+     * @return The amount of successful updates
+     */
+    long getSuccessCount();
+
+    /**
+     * Returns the amount of failed updates.
+     *
+     * @return The amount of failed updates
+     */
+    long getFailureCount();
+
+    /**
+     * Returns the amount of updates that were retries of a failed update.
+     *
+     * @return The amount of retries
+     */
+    long getRetryCount();
+
+    /**
+     * Returns the amount of responses that showed the rates hadn't changed, so weren't parsed.
+     *
+     * @return The amount of unchanged responses
+     */
+    long getNotModifiedCount();
+
+    /**
+     * Returns how old the stalest rates of any running subscription are.
+     *
+     * @return The time since the stalest running subscription last received rates, in milliseconds,
+     *         or {@code -1} if no running subscription has received rates yet
+     */
+    long getStalenessMillis();
+}
@@ -0,0 +1,463 @@
+package currencyexchanger;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded HTTP server that serves the latest rates of a {@link RatesManager} to other processes,
+ * so many services can share one upstream poller.
+ * <p>
+ * The server mimics the {@code /v1/latest} endpoint of <a href="https://freecurrencyapi.com/">freecurrencyapi</a>,
+ * including its {@code base_currency} & {@code currencies} parameters, so another {@link RatesManager} can use it
+ * as its API through {@link RatesManager.Builder#setApiUrl(String)}. Any base currency the manager has a rate to
+ * can be requested, & is converted through the manager's base currency. API keys are accepted, but ignored.
+ * <p>
+ * Each distinct response is serialized once per update of the manager's rates, & the same bytes are sent to every
+ * request after that. Responses carry an {@code ETag}, & requests with a matching {@code If-None-Match} get
+ * {@code 304 Not Modified} with no body. {@code If-None-Match} is compared as HTTP specifies, so {@code *},
+ * lists of ETags & weak ETags are honoured.
+ * <p>
+ * For many requests per second over keep-alive connections, start the JVM with
+ * {@code -Dsun.net.httpserver.nodelay=true}. Without {@code TCP_NODELAY}, the separate writes of headers & body
+ * stall on delayed ACKs, capping each connection at around 25 requests per second. The property applies to every
+ * {@link HttpServer} in the JVM, & is only read when the first one is created, so it's left for users to set.
+ *
+ * @see Builder
+ */
+public class RatesServer implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(RatesServer.class.getName());
+    private static final String LATEST_PATH = "/v1/latest";
+
+    /**
+     * The most distinct responses cached per update. Requests beyond this are still served, but not cached.
+     */
+    private static final int MAX_CACHED_RESPONSES = 1024;
+
+    private final RatesManager manager;
+    private final HttpServer server;
+    private final ExecutorService ownedExecutor;
+
+    private volatile ResponseCache cache;
+
+    /**
+     * Creates the server, & binds it to its address. It doesn't accept requests until it's started.
+     *
+     * @param builder The configured builder to use when constructing the server
+     * @throws IOException If the server can't be bound to its address
+     */
+    private RatesServer(Builder builder) throws IOException {
+        this.manager = builder.manager;
+        this.server = HttpServer.create(builder.address, builder.backlog);
+        if (builder.executor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.ownedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "RatesServer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.setExecutor(ownedExecutor);
+        } else {
+            this.ownedExecutor = null;
+            server.setExecutor(builder.executor);
+        }
+        server.createContext(LATEST_PATH, this::handleLatest);
+
+        this.cache = new ResponseCache(null);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting for requests that are being handled to finish.
+     * If the server created its own executor, that is shut down too.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return The address the server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Returns the base URL of this server, for use as the API URL of another manager.
+     *
+     * @return The base URL of this server, ending with a {@code /}
+     * @see RatesManager.Builder#setApiUrl(String)
+     */
+    public String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        String host = address.getAddress().isAnyLocalAddress()
+                ? InetAddress.getLoopbackAddress().getHostAddress()
+                : address.getAddress().getHostAddress();
+        return String.format("http://%s:%d/", host.contains(":") ? "[" + host + "]" : host, address.getPort());
+    }
+
+    /**
+     * Handles a request for the latest rates.
+     *
+     * @param exchange The request & response
+     * @throws IOException If an {@link IOException} occurs when responding
+     */
+    private void handleLatest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, 405, "Only GET requests are supported.");
+                return;
+            }
+            RatesSnapshot snapshot = manager.latest();
+            if (snapshot == null) {
+                sendError(exchange, 503, "No rates have been retrieved yet.");
+                return;
+            }
+
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String baseCurrency = parameters.get("base_currency");
+            String currencies = parameters.get("currencies");
+            CachedResponse response = responseFor(
+                    snapshot.getRates(),
+                    baseCurrency == null || baseCurrency.isBlank() ? null : baseCurrency.trim().toUpperCase(Locale.ROOT),
+                    currencies == null || currencies.isBlank() ? null : currencies.toUpperCase(Locale.ROOT)
+            );
+            if (response.errorMessage != null) {
+                sendError(exchange, 422, response.errorMessage);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("ETag", response.etag);
+            if (matchesAny(response.etag, exchange.getRequestHeaders().get("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.body.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response.body);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.WARNING, "Serving rates failed unexpectedly", re);
+            throw re;
+        }
+    }
+
+    /**
+     * Checks whether an ETag matches an {@code If-None-Match} header, using the weak comparison HTTP specifies
+     * for it. The header matches if it's {@code *}, or if any ETag listed in it has the same opaque tag,
+     * whether either of them is weak or not.
+     *
+     * @param etag         The ETag of the response
+     * @param headerValues The values of every {@code If-None-Match} header of the request, or {@code null} if none
+     * @return Whether the response matches, so {@code 304 Not Modified} can be sent instead
+     */
+    private static boolean matchesAny(String etag, List<String> headerValues) {
+        if (headerValues == null) {
+            return false;
+        }
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String headerValue : headerValues) {
+            for (String listed : headerValue.split(",")) {
+                String candidate = listed.trim();
+                if (candidate.equals("*")) {
+                    return true;
+                }
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals(opaqueTag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the response for a request, serializing it if it isn't already cached for the current rates.
+     *
+     * @param rates        The current rates of the manager
+     * @param baseCurrency The requested base currency in upper case, or {@code null} for the manager's base currency
+     * @param currencies   The requested comma-separated currencies in upper case, or {@code null} for all currencies
+     * @return The response
+     */
+    private CachedResponse responseFor(RateTable rates, String baseCurrency, String currencies) {
+        ResponseCache current = cache;
+        if (current.rates != rates) {
+            current = new ResponseCache(rates);
+            cache = current;
+        }
+        String key = (baseCurrency == null ? "" : baseCurrency) + "/" + (currencies == null ? "" : currencies);
+        CachedResponse response = current.responses.get(key);
+        if (response == null) {
+            response = serialize(rates, baseCurrency, currencies);
+            if (current.responses.size() < MAX_CACHED_RESPONSES) {
+                current.responses.putIfAbsent(key, response);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Serializes the rates for a request, converting them to the requested base currency if needed.
+     *
+     * @param rates        The current rates of the manager
+     * @param baseCurrency The requested base currency in upper case, or {@code null} for the manager's base currency
+     * @param currencies   The requested comma-separated currencies in upper case, or {@code null} for all currencies
+     * @return The response, or an error response if a requested currency isn't available
+     */
+    private static CachedResponse serialize(RateTable rates, String baseCurrency, String currencies) {
+        CurrencyId pivot = rates.getBaseCurrency();
+        CurrencyId base = baseCurrency == null ? pivot : CurrencyId.find(baseCurrency);
+        double pivotToBase;
+        if (base == null) {
+            return new CachedResponse("The selected base currency is invalid.");
+        } else if (base.equals(pivot)) {
+            pivotToBase = 1;
+        } else {
+            pivotToBase = rates.rate(base);
+            if (!(pivotToBase > 0)) {
+                return new CachedResponse("The selected base currency is invalid.");
+            }
+        }
+
+        List<CurrencyId> selected = new ArrayList<>();
+        if (currencies == null) {
+            selected.addAll(rates.getCurrencies());
+            if (!rates.contains(pivot)) {
+                selected.add(pivot);
+            }
+        } else {
+            TreeSet<String> codes = new TreeSet<>();
+            for (String code : currencies.split(",")) {
+                if (!code.isBlank()) {
+                    codes.add(code.trim());
+                }
+            }
+            for (String code : codes) {
+                CurrencyId currency = CurrencyId.find(code);
+                if (currency == null || !currency.equals(pivot) && !rates.contains(currency)) {
+                    return new CachedResponse("The selected currencies is invalid.");
+                }
+                selected.add(currency);
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(32 + selected.size() * 24);
+        try (JsonGenerator generator = HtmlRequester.jsonFactory().createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("data");
+            for (CurrencyId currency : selected) {
+                double pivotRate = currency.equals(pivot) ? 1 : rates.rate(currency);
+                generator.writeNumberField(currency.code(), pivotRate / pivotToBase);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Writing to memory failed", ioe);
+        }
+        return new CachedResponse(body.toByteArray());
+    }
+
+    /**
+     * Sends an error response, in the same format as freecurrencyapi.
+     *
+     * @param exchange   The request & response
+     * @param statusCode The status code to send
+     * @param message    The error message
+     * @throws IOException If an {@link IOException} occurs when responding
+     */
+    private static void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = HtmlRequester.jsonFactory().createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeStringField("message", message);
+            generator.writeEndObject();
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    /**
+     * Parses a raw query string into its parameters.
+     *
+     * @param rawQuery The raw query string, or {@code null} if there is none
+     * @return The parameters. If a parameter occurs more than once, the last occurrence is used
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(
+                        URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8)
+                );
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * The serialized responses for one version of the manager's rates.
+     */
+    private static class ResponseCache {
+        private final RateTable rates;
+        private final Map<String, CachedResponse> responses;
+
+        /**
+         * Creates an empty cache.
+         *
+         * @param rates The rates the responses are for
+         */
+        private ResponseCache(RateTable rates) {
+            this.rates = rates;
+            this.responses = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * A serialized response, or an error.
+     */
+    private static class CachedResponse {
+        private final byte[] body;
+        private final String etag;
+        private final String errorMessage;
+
+        /**
+         * Creates a successful response.
+         *
+         * @param body The response body
+         */
+        private CachedResponse(byte[] body) {
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            this.body = body;
+            this.etag = String.format("\"%08x-%x\"", crc.getValue(), body.length);
+            this.errorMessage = null;
+        }
+
+        /**
+         * Creates an error response.
+         *
+         * @param errorMessage The error message
+         */
+        private CachedResponse(String errorMessage) {
+            this.body = null;
+            this.etag = null;
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    /**
+     * Builder for {@link RatesServer}.
+     */
+    public static class Builder {
+        private final RatesManager manager;
+
+        private InetSocketAddress address;
+        private int backlog;
+        private Executor executor;
+
+        /**
+         * Creates the builder.
+         *
+         * @param manager The manager to serve the latest rates of
+         */
+        public Builder(RatesManager manager) {
+            this.manager = manager;
+
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+            this.backlog = 0;
+            this.executor = null;
+        }
+
+        /**
+         * Builds the {@link RatesServer}, & binds it to its address. Call {@link RatesServer#start()} to start it.
+         *
+         * @return The newly built {@link RatesServer}
+         * @throws IOException If the server can't be bound to its address
+         */
+        public RatesServer build() throws IOException {
+            return new RatesServer(this);
+        }
+
+        /**
+         * Sets the address to listen on. If no address is set, an ephemeral port on the loopback address is used.
+         *
+         * @param address The address to listen on
+         * @return The builder
+         */
+        public Builder setAddress(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * Sets the maximum amount of incoming connections to queue while waiting to be accepted.
+         * If no backlog is set, or it's set to {@code 0} or less, the system default is used.
+         *
+         * @param backlog The maximum amount of queued incoming connections
+         * @return The builder
+         */
+        public Builder setBacklog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Sets the executor to handle requests on. If no executor is set, the server uses its own pool
+         * of daemon threads, one per available processor, which is shut down when the server is closed.
+         *
+         * @param executor The executor to handle requests on
+         * @return The builder
+         */
+        public Builder setExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+    }
+}
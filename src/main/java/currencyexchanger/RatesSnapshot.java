@@ -0,0 +1,61 @@
+package currencyexchanger;
+
+import java.time.Instant;
+
+/**
+ * A versioned snapshot of the rates published by a {@link RatesManager}.
+ * Snapshots are immutable, & can be freely shared between threads.
+ *
+ * @see RatesManager#latest()
+ */
+public final class RatesSnapshot {
+    private final RateTable rates;
+    private final Instant fetchedAt;
+    private final long sequence;
+
+    /**
+     * Creates the snapshot.
+     *
+     * @param rates     The rates in the snapshot
+     * @param fetchedAt When the rates were fetched
+     * @param sequence  The sequence number of the snapshot
+     */
+    RatesSnapshot(RateTable rates, Instant fetchedAt, long sequence) {
+        this.rates = rates;
+        this.fetchedAt = fetchedAt;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the rates in this snapshot.
+     *
+     * @return The rates in this snapshot
+     */
+    public RateTable getRates() {
+        return rates;
+    }
+
+    /**
+     * Returns when the rates in this snapshot were fetched.
+     *
+     * @return When the rates in this snapshot were fetched
+     */
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * Returns the sequence number of this snapshot. Every snapshot published by a manager
+     * has a higher sequence number than the one before it, starting at {@code 1}.
+     *
+     * @return The sequence number of this snapshot
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RatesSnapshot #%s fetched at %s: %s", sequence, fetchedAt, rates);
+    }
+}
@@ -0,0 +1,515 @@
+package currencyexchanger;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * A periodic subscription to the exchange rates from one base currency, run by a {@link RatesManager}.
+ * Each subscription has its own currencies, interval & listeners, but subscriptions due at the same time
+ * share upstream requests.
+ *
+ * @see RatesManager#subscribe(String, Collection, long, java.util.concurrent.TimeUnit, RatesUpdateListener)
+ */
+public class RatesSubscription {
+    private static final String DEFAULT_BASE_CURRENCY = "USD";
+
+    /**
+     * The delay before the first retry after a failed update. Each further consecutive failure doubles it,
+     * up to the subscription's interval.
+     */
+    private static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RatesManager manager;
+    private final String baseCurrency;
+    private final Set<String> currencies;
+    private final Set<CurrencyId> currencyIds;
+    private final Executor listenerExecutor;
+    private final Map<RatesUpdateListener, ListenerMailbox<RateTable>> listeners;
+    private final Map<RatesDeltaListener, ListenerMailbox<RatesDelta>> deltaListeners;
+    private final Set<RatesFlowSubscription> flowSubscriptions;
+    private final AtomicReference<RatesSnapshot> latest;
+
+    private volatile RateTable lastFetched;
+    private volatile boolean cancelled;
+
+    // Scheduling state, guarded by the manager
+    private long intervalNanos;
+    private long nextDueNanos;
+    private long lastClaimedNanos;
+    private long lastSharedNanos;
+    private boolean shared;
+    private int consecutiveFailures;
+    private boolean active;
+
+    /**
+     * Creates the subscription. It's not scheduled until the manager schedules it.
+     *
+     * @param manager          The manager running the subscription
+     * @param baseCurrency     The base currency to get exchange rates for. If {@code null} or blank, USD is used
+     * @param currencies       The currencies to get the exchange rate to. If {@code null} or empty, all currencies are used
+     * @param listenerExecutor The executor to deliver rates to listeners on
+     */
+    RatesSubscription(
+            RatesManager manager,
+            String baseCurrency,
+            Collection<String> currencies,
+            Executor listenerExecutor
+    ) {
+        this.manager = manager;
+        this.baseCurrency = (baseCurrency == null || baseCurrency.isBlank() ? DEFAULT_BASE_CURRENCY : baseCurrency)
+                .trim().toUpperCase(Locale.ROOT);
+        this.currencies = currencies == null || currencies.isEmpty()
+                ? null
+                : currencies.stream()
+                        .map(currency -> currency.trim().toUpperCase(Locale.ROOT))
+                        .collect(Collectors.toUnmodifiableSet());
+        this.currencyIds = this.currencies == null
+                ? null
+                : this.currencies.stream().map(CurrencyId::of).collect(Collectors.toUnmodifiableSet());
+        this.listenerExecutor = listenerExecutor;
+        this.listeners = new ConcurrentHashMap<>();
+        this.deltaListeners = new ConcurrentHashMap<>();
+        this.flowSubscriptions = ConcurrentHashMap.newKeySet();
+        this.latest = new AtomicReference<>();
+
+        this.lastFetched = null;
+        this.cancelled = false;
+
+        this.intervalNanos = 0;
+        this.nextDueNanos = 0;
+        this.lastClaimedNanos = 0;
+        this.lastSharedNanos = 0;
+        this.shared = false;
+        this.consecutiveFailures = 0;
+        this.active = false;
+    }
+
+    /**
+     * Returns the base currency of this subscription.
+     *
+     * @return The base currency of this subscription, in upper case
+     */
+    public String getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    /**
+     * Returns the currencies of this subscription.
+     *
+     * @return An unmodifiable set of the currencies of this subscription, in upper case,
+     *         or an empty set if this subscription is for all available currencies
+     */
+    public Set<String> getCurrencies() {
+        return currencies == null ? Collections.emptySet() : currencies;
+    }
+
+    /**
+     * Returns the currencies of this subscription, for merging requests.
+     *
+     * @return The currencies of this subscription, in upper case, or {@code null} if it's for all currencies
+     */
+    Set<String> requestedCurrencies() {
+        return currencies;
+    }
+
+    /**
+     * Adds a listener to listen for updated exchange rates. Can be called from any thread.
+     * Rates are delivered to each listener on its own, so a slow listener only delays itself.
+     * If a listener falls behind, it skips straight to the newest rates.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(RatesUpdateListener listener) {
+        listeners.computeIfAbsent(listener, added -> new ListenerMailbox<>(
+                added::onUpdate,
+                (older, newer) -> newer,
+                listenerExecutor,
+                manager.metrics()
+        ));
+    }
+
+    /**
+     * Removes a listener, so it no longer receives updated exchange rates. Can be called from any thread.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(RatesUpdateListener listener) {
+        ListenerMailbox<RateTable> mailbox = listeners.remove(listener);
+        if (mailbox != null) {
+            mailbox.close();
+        }
+    }
+
+    /**
+     * Adds a listener to listen for changes in exchange rates. Can be called from any thread.
+     * The listener only receives the rates that changed by at least {@code minRelativeChange}
+     * since the listener was last notified of them, & isn't called at all if none did. So a rate drifting
+     * by less than {@code minRelativeChange} per update is still reported, once its drift adds up to it.
+     * If the listener falls behind, the updates it missed are combined, so it receives every change at once.
+     *
+     * @param listener          the listener to add
+     * @param minRelativeChange The smallest relative change to notify the listener of, in either direction.
+     *                          {@code 0.001} ignores changes smaller than 0.1%, & {@code 0} includes all changes
+     * @throws IllegalArgumentException If {@code minRelativeChange} is negative or {@code NaN}
+     */
+    public void addDeltaListener(RatesDeltaListener listener, double minRelativeChange) {
+        if (!(minRelativeChange >= 0)) {
+            throw new IllegalArgumentException("The minimum relative change must be 0 or more");
+        }
+        deltaListeners.computeIfAbsent(listener, added -> new ListenerMailbox<>(
+                new DeltaDelivery(added, minRelativeChange),
+                RatesDelta::combine,
+                listenerExecutor,
+                manager.metrics()
+        ));
+    }
+
+    /**
+     * Removes a delta listener, so it no longer receives changes in exchange rates. Can be called from any thread.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeDeltaListener(RatesDeltaListener listener) {
+        ListenerMailbox<RatesDelta> mailbox = deltaListeners.remove(listener);
+        if (mailbox != null) {
+            mailbox.close();
+        }
+    }
+
+    /**
+     * Returns a publisher of the snapshots received by this subscription.
+     *
+     * @return A publisher of the snapshots received by this subscription
+     * @see #publisher(Collection)
+     */
+    public Flow.Publisher<RatesSnapshot> publisher() {
+        return publisher(null);
+    }
+
+    /**
+     * Returns a publisher of the snapshots received by this subscription, with only some of their currencies.
+     * <p>
+     * New subscribers receive the latest snapshot first, if there is one, & then every later snapshot,
+     * as far as their demand allows. Subscribers are never buffered more than one snapshot: if a newer snapshot
+     * arrives before a subscriber requests more, it replaces the one held back, so slow subscribers skip straight
+     * to the newest rates. Signals are delivered on the listener executor, one at a time per subscriber.
+     * Subscribers are completed once this subscription is cancelled.
+     *
+     * @param currencies The currencies to include in published snapshots. If {@code null} or empty,
+     *                   all currencies of this subscription are included
+     * @return A publisher of the snapshots received by this subscription
+     */
+    public Flow.Publisher<RatesSnapshot> publisher(Collection<String> currencies) {
+        Set<CurrencyId> filter = currencies == null || currencies.isEmpty()
+                ? null
+                : currencies.stream().map(CurrencyId::of).collect(Collectors.toUnmodifiableSet());
+        return subscriber -> subscribe(subscriber, filter);
+    }
+
+    /**
+     * Subscribes a {@link Flow.Subscriber} to the snapshots received by this subscription.
+     *
+     * @param subscriber The subscriber
+     * @param currencies The currencies to include in delivered snapshots, or {@code null} to include all
+     */
+    private void subscribe(Flow.Subscriber<? super RatesSnapshot> subscriber, Set<CurrencyId> currencies) {
+        RatesFlowSubscription subscription = new RatesFlowSubscription(
+                subscriber,
+                currencies,
+                listenerExecutor,
+                manager.metrics(),
+                flowSubscriptions::remove
+        );
+        // Registered only after onSubscribe returns, so no snapshot can be delivered during it
+        subscriber.onSubscribe(subscription);
+        flowSubscriptions.add(subscription);
+        if (subscription.isCancelled()) {
+            flowSubscriptions.remove(subscription);
+            return;
+        }
+        // A newer snapshot may be published between registering & this, in which case offer keeps that one
+        RatesSnapshot snapshot = latest.get();
+        if (snapshot != null) {
+            subscription.offer(snapshot);
+        }
+        if (cancelled) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Returns the latest rates received by this subscription. This never blocks,
+     * & is safe to call from any thread as often as needed.
+     *
+     * @return The latest snapshot of rates, or {@code null} if no rates have been received yet
+     */
+    public RatesSnapshot latest() {
+        return latest.get();
+    }
+
+    /**
+     * Stops this subscription. If an update is happening as this is called,
+     * the update will finish, but no further updates will happen. Does nothing if already cancelled.
+     */
+    public void cancel() {
+        manager.unschedule(this, false);
+        cancelled = true;
+        flowSubscriptions.forEach(RatesFlowSubscription::complete);
+    }
+
+    /**
+     * Marks this subscription as scheduled, & due immediately. Only called by the manager, while holding its lock.
+     *
+     * @param intervalNanos The time between each update, in nanoseconds
+     * @param nowNanos      The current {@link System#nanoTime()}
+     */
+    void activate(long intervalNanos, long nowNanos) {
+        this.intervalNanos = intervalNanos;
+        this.nextDueNanos = nowNanos;
+        this.active = true;
+    }
+
+    /**
+     * Marks this subscription as no longer scheduled. Only called by the manager, while holding its lock.
+     */
+    void deactivate() {
+        this.active = false;
+    }
+
+    /**
+     * Returns whether this subscription is scheduled. Only called by the manager, while holding its lock.
+     *
+     * @return Whether this subscription is scheduled
+     */
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns when this subscription is next due. Only called by the manager, while holding its lock.
+     *
+     * @return When this subscription is next due, as a {@link System#nanoTime()} value
+     */
+    long getNextDueNanos() {
+        return nextDueNanos;
+    }
+
+    /**
+     * Checks whether this subscription is due, or close enough to due that it should share a request
+     * with subscriptions that are. If it is, its next due time is moved forward by one interval.
+     * Only called by the manager, while holding its lock.
+     *
+     * @param nowNanos            The current {@link System#nanoTime()}
+     * @param groupingWindowNanos The longest time ahead of schedule a subscription can be updated
+     * @return Whether this subscription should be updated now
+     */
+    boolean claimIfDue(long nowNanos, long groupingWindowNanos) {
+        if (nextDueNanos - nowNanos > Math.min(groupingWindowNanos, intervalNanos / 10)) {
+            return false;
+        }
+        lastClaimedNanos = nowNanos;
+        nextDueNanos += intervalNanos;
+        if (nextDueNanos - nowNanos < 0) {
+            // Fell behind by more than an interval, so skip the missed updates instead of bursting to catch up
+            nextDueNanos = nowNanos + intervalNanos;
+        }
+        return true;
+    }
+
+    /**
+     * Records that the leader of the fleet shared rates covering this subscription.
+     * Only called by the manager, while holding its lock.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     */
+    void sharedByFleet(long nowNanos) {
+        lastSharedNanos = nowNanos;
+        shared = true;
+    }
+
+    /**
+     * Returns whether the leader of the fleet shared rates covering this subscription within the last interval,
+     * so a follower can skip retrieving them itself. A quarter of an interval is allowed on top,
+     * as the leader's updates drift against this subscription's by how long its requests take.
+     * Only called by the manager, while holding its lock.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return Whether the leader shared rates covering this subscription recently enough
+     */
+    boolean isCoveredByFleet(long nowNanos) {
+        return shared && nowNanos - lastSharedNanos <= intervalNanos + intervalNanos / 4;
+    }
+
+    /**
+     * Returns whether the latest update failed, so the next update is a retry.
+     * Only called by the manager, while holding its lock.
+     *
+     * @return Whether the latest update failed
+     */
+    boolean isRetrying() {
+        return consecutiveFailures > 0;
+    }
+
+    /**
+     * Records that the latest update succeeded, & stretches the time until the next update if asked to.
+     * Only called by the manager, while holding its lock.
+     *
+     * @param stretch How many intervals to wait between the latest update & the next one. At least {@code 1}
+     */
+    void updateSucceeded(double stretch) {
+        consecutiveFailures = 0;
+        if (stretch > 1) {
+            long stretchedDueNanos = lastClaimedNanos + (long) (intervalNanos * stretch);
+            if (stretchedDueNanos - nextDueNanos > 0) {
+                nextDueNanos = stretchedDueNanos;
+            }
+        }
+    }
+
+    /**
+     * Records that the latest update failed, & moves the next update forward to retry sooner than a full interval.
+     * The delay before the retry doubles with each consecutive failure, up to the interval, & is randomized
+     * so subscriptions that failed together don't retry together. Only called by the manager, while holding its lock.
+     *
+     * @param nowNanos      The current {@link System#nanoTime()}
+     * @param minDelayNanos The shortest time to wait before retrying, such as a delay asked for by the API
+     */
+    void updateFailed(long nowNanos, long minDelayNanos) {
+        consecutiveFailures++;
+        long backoffNanos = Math.min(intervalNanos, INITIAL_BACKOFF_NANOS << Math.min(consecutiveFailures - 1, 30));
+        long jitteredNanos = backoffNanos / 2 + ThreadLocalRandom.current().nextLong(backoffNanos / 2 + 1);
+        nextDueNanos = nowNanos + Math.max(jitteredNanos, minDelayNanos);
+    }
+
+    /**
+     * Publishes newly retrieved rates as the latest snapshot, & queues them for delivery to any listeners.
+     * Rates for currencies this subscription isn't for are left out. Never waits for listeners.
+     * <p>
+     * If {@code fetched} is the same table as the previous one, or has the same rates for the currencies of
+     * this subscription as the latest snapshot, the rates haven't changed, so only the fetch time
+     * of the latest snapshot is updated, & listeners aren't notified.
+     *
+     * @param fetched   The newly retrieved rates, for at least the currencies of this subscription
+     * @param fetchedAt When the rates were retrieved
+     * @return The published snapshot, or {@code null} if the rates haven't changed
+     */
+    RatesSnapshot publish(RateTable fetched, Instant fetchedAt) {
+        if (fetched == lastFetched) {
+            latest.updateAndGet(previous -> previous == null
+                    ? null
+                    : new RatesSnapshot(previous.getRates(), fetchedAt, previous.getSequence())
+            );
+            return null;
+        }
+        lastFetched = fetched;
+        RateTable rates = currencyIds == null ? fetched : fetched.subset(currencyIds);
+        RatesSnapshot previous;
+        RatesSnapshot snapshot;
+        boolean changed;
+        do {
+            previous = latest.get();
+            // Equal rates can arrive in a new table, such as a merged request trimmed down to these currencies
+            changed = previous == null || !previous.getRates().hasSameRates(rates);
+            snapshot = changed
+                    ? new RatesSnapshot(rates, fetchedAt, previous == null ? 1 : previous.getSequence() + 1)
+                    : new RatesSnapshot(previous.getRates(), fetchedAt, previous.getSequence());
+        } while (!latest.compareAndSet(previous, snapshot));
+        if (!changed) {
+            return null;
+        }
+
+        listeners.values().forEach(mailbox -> mailbox.offer(rates));
+        if (!deltaListeners.isEmpty()) {
+            RatesDelta delta = new RatesDelta(previous == null ? null : previous.getRates(), rates);
+            delta.computeChanges();
+            deltaListeners.values().forEach(mailbox -> mailbox.offer(delta));
+        }
+        for (RatesFlowSubscription subscription : flowSubscriptions) {
+            subscription.offer(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Restores a snapshot saved by a previous run as the latest snapshot, without notifying any listeners.
+     * Does nothing if this subscription has already received newer rates.
+     *
+     * @param snapshot The saved snapshot
+     * @return Whether the snapshot was restored
+     */
+    boolean restore(RatesSnapshot snapshot) {
+        RateTable rates = currencyIds == null ? snapshot.getRates() : snapshot.getRates().subset(currencyIds);
+        RatesSnapshot restored = new RatesSnapshot(rates, snapshot.getFetchedAt(), snapshot.getSequence());
+        return latest.compareAndSet(null, restored);
+    }
+
+    /**
+     * Queues the latest snapshot for delivery to all listeners, if there is one. Used to deliver a restored snapshot.
+     */
+    void redeliverLatest() {
+        RatesSnapshot snapshot = latest.get();
+        if (snapshot != null) {
+            listeners.values().forEach(mailbox -> mailbox.offer(snapshot.getRates()));
+            if (!deltaListeners.isEmpty()) {
+                RatesDelta delta = new RatesDelta(null, snapshot.getRates());
+                delta.computeChanges();
+                deltaListeners.values().forEach(mailbox -> mailbox.offer(delta));
+            }
+        }
+    }
+
+    /**
+     * Delivers deltas to a delta listener. Changes are measured from the rates the listener was last notified of,
+     * so changes below its threshold aren't lost, but add up over updates until they reach it.
+     * Only called by the mailbox of the listener, one delta at a time.
+     */
+    private static final class DeltaDelivery implements Consumer<RatesDelta> {
+        private final RatesDeltaListener listener;
+        private final double minRelativeChange;
+
+        private RateTable notified;
+        private boolean started;
+
+        /**
+         * Creates the delivery.
+         *
+         * @param listener          The listener to deliver to
+         * @param minRelativeChange The smallest relative change to notify the listener of
+         */
+        private DeltaDelivery(RatesDeltaListener listener, double minRelativeChange) {
+            this.listener = listener;
+            this.minRelativeChange = minRelativeChange;
+
+            this.notified = null;
+            this.started = false;
+        }
+
+        @Override
+        public void accept(RatesDelta delta) {
+            RateTable baseline = started ? notified : delta.getPrevious();
+            List<RateChange> all = delta.changesFrom(baseline);
+            List<RateChange> changes = RatesDelta.atLeast(all, minRelativeChange);
+            // While every change is delivered, the baseline stays the shared previous table, so changes are shared too
+            notified = changes.size() == all.size()
+                    ? delta.getCurrent()
+                    : RatesDelta.apply(baseline, changes, delta.getCurrent().getBaseCurrency());
+            started = true;
+            if (!changes.isEmpty()) {
+                listener.onChanges(changes, delta.getCurrent());
+            }
+        }
+    }
+}
@@ -12,4 +12,15 @@ public interface RatesUpdateListener {
      * @param rates The new rates received.
      */
     void onUpdate(Map<String, Double> rates);
+
+    /**
+     * Called whenever the listener receives updated rates. Listeners that do many lookups should override this,
+     * & read rates directly from the table. By default, this passes a {@link RateTable#asMap() map view}
+     * of the table to {@link #onUpdate(Map)}.
+     *
+     * @param rates The new rates received.
+     */
+    default void onUpdate(RateTable rates) {
+        onUpdate(rates.asMap());
+    }
 }
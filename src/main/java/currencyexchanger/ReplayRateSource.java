@@ -0,0 +1,190 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link RateSource} that replays recorded responses, for deterministic tests & load tests without network access.
+ * <p>
+ * Responses are read from the {@code .json} files in a directory, in the order of their file names,
+ * & must be in the freecurrencyapi response format, like the ones served by a {@link RatesServer}.
+ * Every fetch is answered with the next recorded response, straight from memory.
+ * Requests for other base currencies than the one the responses were recorded with are answered
+ * with rates converted through the recorded base currency.
+ *
+ * @see Builder
+ */
+public final class ReplayRateSource implements RateSource {
+    private static final String DEFAULT_BASE_CURRENCY = "USD";
+    private static final String RESPONSE_SUFFIX = ".json";
+
+    private final List<RateTable> responses;
+    private final boolean loop;
+    private final AtomicLong fetches;
+
+    /**
+     * Creates the source.
+     *
+     * @param responses The recorded responses, in the order to replay them in
+     * @param loop      Whether to start over after the last response, instead of repeating it
+     */
+    private ReplayRateSource(List<RateTable> responses, boolean loop) {
+        this.responses = List.copyOf(responses);
+        this.loop = loop;
+        this.fetches = new AtomicLong();
+    }
+
+    /**
+     * Returns the amount of recorded responses.
+     *
+     * @return The amount of recorded responses
+     */
+    public int size() {
+        return responses.size();
+    }
+
+    /**
+     * Returns the amount of fetches answered so far.
+     *
+     * @return The amount of fetches answered so far
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    @Override
+    public CompletableFuture<RateTable> fetch(String baseCurrency, Collection<String> currencies) {
+        long fetch = fetches.getAndIncrement();
+        RateTable recorded = responses.get(loop
+                ? (int) (fetch % responses.size())
+                : (int) Math.min(fetch, responses.size() - 1)
+        );
+
+        RateTable rates = baseCurrency == null ? recorded : rebase(recorded, CurrencyId.of(baseCurrency));
+        if (rates == null) {
+            return CompletableFuture.failedFuture(new IOException("No recorded rate for base currency " + baseCurrency));
+        }
+        if (currencies != null && !currencies.isEmpty()) {
+            Set<CurrencyId> requested = currencies.stream().map(CurrencyId::of).collect(Collectors.toSet());
+            rates = rates.subset(requested);
+        }
+        return CompletableFuture.completedFuture(rates);
+    }
+
+    /**
+     * Converts recorded rates to another base currency, through the recorded base currency.
+     *
+     * @param rates        The recorded rates
+     * @param baseCurrency The base currency to convert the rates to
+     * @return The converted rates, {@code rates} itself if the base currency is the same,
+     *         or {@code null} if there's no recorded rate for {@code baseCurrency}
+     */
+    private static RateTable rebase(RateTable rates, CurrencyId baseCurrency) {
+        CurrencyId pivot = rates.getBaseCurrency();
+        if (pivot.equals(baseCurrency)) {
+            return rates;
+        }
+        double pivotToBase = rates.rate(baseCurrency);
+        if (!(pivotToBase > 0)) {
+            return null;
+        }
+        RateTable.Builder rebased = new RateTable.Builder(baseCurrency);
+        if (!rates.contains(pivot)) {
+            rebased.put(pivot, 1 / pivotToBase);
+        }
+        for (int i = 0; i < rates.size(); i++) {
+            CurrencyId currency = rates.currencyAt(i);
+            rebased.put(currency, currency.equals(pivot) ? 1 / pivotToBase : rates.rate(currency) / pivotToBase);
+        }
+        return rebased.build();
+    }
+
+    /**
+     * Builder for {@link ReplayRateSource}.
+     */
+    public static class Builder {
+        private final Path directory;
+
+        private String baseCurrency;
+        private boolean loop;
+
+        /**
+         * Creates the builder.
+         *
+         * @param directory The directory the recorded responses are in
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+
+            this.baseCurrency = DEFAULT_BASE_CURRENCY;
+            this.loop = true;
+        }
+
+        /**
+         * Sets the base currency the responses were recorded with. If no base currency is set, USD is used.
+         *
+         * @param baseCurrency The base currency of the recorded responses
+         * @return The builder
+         */
+        public Builder setBaseCurrency(String baseCurrency) {
+            this.baseCurrency = baseCurrency;
+            return this;
+        }
+
+        /**
+         * Sets whether to start over from the first response after the last one has been replayed.
+         * If not, the last response is repeated for every later fetch. Enabled by default.
+         *
+         * @param loop Whether to start over after the last response
+         * @return The builder
+         */
+        public Builder setLoop(boolean loop) {
+            this.loop = loop;
+            return this;
+        }
+
+        /**
+         * Reads the recorded responses, & builds the {@link ReplayRateSource}.
+         *
+         * @return The newly built {@link ReplayRateSource}
+         * @throws IOException If the directory can't be read, has no recorded responses,
+         *                     or a recorded response isn't a valid rates response
+         */
+        public ReplayRateSource build() throws IOException {
+            List<Path> files;
+            try (Stream<Path> listed = Files.list(directory)) {
+                files = listed.filter(file -> file.getFileName().toString().endsWith(RESPONSE_SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            if (files.isEmpty()) {
+                throw new IOException("No recorded responses in " + directory);
+            }
+
+            CurrencyId base = CurrencyId.of(baseCurrency);
+            List<RateTable> responses = new ArrayList<>();
+            for (Path file : files) {
+                RateTable.Builder rates = new RateTable.Builder(base);
+                ApiWrapper.RequestFailedException failure;
+                try (InputStream body = Files.newInputStream(file)) {
+                    failure = ApiWrapper.parseRates(200, "OK", body, rates::put);
+                }
+                if (failure != null) {
+                    throw new IOException("Recorded response " + file + " is invalid", failure);
+                }
+                responses.add(rates.build());
+            }
+            return new ReplayRateSource(responses, loop);
+        }
+    }
+}
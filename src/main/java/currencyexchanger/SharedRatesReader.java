@@ -0,0 +1,327 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the rates a {@link RatesManager} publishes into shared memory, so other processes on the same host
+ * can read them without running their own manager.
+ * <p>
+ * The rates are kept in a memory-mapped file with a fixed layout, all values little-endian:
+ * <pre>
+ * offset        size        field
+ * 0             int         magic, "RSHM" (0x5253484D)
+ * 4             short       format version, 1
+ * 6             short       reserved, always 0
+ * 8             long        write sequence, odd while a write is in progress
+ * 16            int         capacity, the most currencies the file has room for, c
+ * 20            int         amount of currencies currently in the file, n
+ * 24            long        fetch time, seconds since the epoch
+ * 32            int         fetch time, nanosecond adjustment
+ * 36            int         layout version, changed whenever the currencies change
+ * 40            long        snapshot sequence number
+ * 48            byte[8]     base currency code
+ * 56            byte[8][c]  currency codes
+ * 56 + 8c       double[c]   rates
+ * </pre>
+ * where codes are ASCII, padded with zero bytes. Only the first {@code n} codes & rates are in use.
+ * <p>
+ * Writes are guarded by a seqlock: the writer makes the write sequence odd, writes, & makes it even again.
+ * Readers read the sequence, read what they need, & read the sequence again, retrying if it was odd or changed.
+ * Reads never block the writer, & never copy more than what's read. Readers in other languages can follow
+ * the same protocol, with acquire loads of the sequence. A write takes microseconds, so if the sequence stays odd
+ * for longer than {@value #MAX_WAIT_MILLIS} milliseconds, the writer died mid-write, & reads give up
+ * as if nothing had been written, until a new writer takes over the file.
+ * <p>
+ * Readers are safe to use from multiple threads.
+ *
+ * @see RatesManager.Builder#setSharedMemoryFile(Path, int)
+ */
+public final class SharedRatesReader {
+    static final int MAGIC = 0x5253484D;
+    static final short VERSION = 1;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 16;
+    static final int COUNT_OFFSET = 20;
+    static final int FETCHED_SECONDS_OFFSET = 24;
+    static final int FETCHED_NANOS_OFFSET = 32;
+    static final int LAYOUT_OFFSET = 36;
+    static final int SNAPSHOT_SEQUENCE_OFFSET = 40;
+    static final int BASE_CURRENCY_OFFSET = 48;
+    static final int CODES_OFFSET = 56;
+    static final int CODE_SIZE = 8;
+
+    /**
+     * How long a read waits for a write in progress to finish, before giving up on the writer.
+     */
+    static final long MAX_WAIT_MILLIS = 10;
+
+    /**
+     * Accesses the write sequence with memory ordering, which plain {@link ByteBuffer} accessors don't have.
+     */
+    static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int ratesOffset;
+
+    private volatile Layout layout;
+
+    /**
+     * Creates the reader.
+     *
+     * @param buffer The mapped file, in little-endian order
+     */
+    private SharedRatesReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.capacity = buffer.getInt(CAPACITY_OFFSET);
+        this.ratesOffset = ratesOffset(capacity);
+
+        this.layout = new Layout(-1, new String[0]);
+    }
+
+    /**
+     * Maps a file written by a {@link RatesManager} for reading.
+     *
+     * @param file The file the rates are published into
+     * @return The reader
+     * @throws IOException If the file can't be mapped, or isn't in the expected format
+     */
+    public static SharedRatesReader open(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < CODES_OFFSET) {
+                throw new IOException(file + " is not a shared rates file");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.getInt(0) != MAGIC || mapped.getShort(4) != VERSION) {
+            throw new IOException(file + " is not a shared rates file, or has an unknown format");
+        }
+        int capacity = mapped.getInt(CAPACITY_OFFSET);
+        if (capacity < 0 || fileSize(capacity) > mapped.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+        return new SharedRatesReader(mapped);
+    }
+
+    /**
+     * Returns the size of a file with room for an amount of currencies.
+     *
+     * @param capacity The most currencies the file has room for
+     * @return The size of the file, in bytes
+     */
+    static int fileSize(int capacity) {
+        return ratesOffset(capacity) + capacity * Double.BYTES;
+    }
+
+    /**
+     * Returns where the rates start in a file with room for an amount of currencies.
+     *
+     * @param capacity The most currencies the file has room for
+     * @return The offset of the first rate, in bytes
+     */
+    static int ratesOffset(int capacity) {
+        return CODES_OFFSET + capacity * CODE_SIZE;
+    }
+
+    /**
+     * Returns the most currencies the file has room for.
+     *
+     * @return The most currencies the file has room for
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns a number that changes every time the writer writes, which is a cheap way to check for updates.
+     * Never waits: while a write is in progress, the version from before the write is returned.
+     *
+     * @return The current version of the rates, or {@code 0} if nothing has been written yet
+     */
+    public long version() {
+        return (long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET) / 2;
+    }
+
+    /**
+     * Reads the current rate for a currency, without allocating.
+     *
+     * @param currency The currency to read the rate for
+     * @return The rate from the base currency to {@code currency}, or {@code NaN} if there's no rate for it,
+     *         nothing has been written yet, or the writer died mid-write
+     */
+    public double rate(CurrencyId currency) {
+        while (true) {
+            long before = stableSequence();
+            if (before <= 0) {
+                return Double.NaN;
+            }
+            Layout current = layout;
+            int version = buffer.getInt(LAYOUT_OFFSET);
+            if (current.version != version) {
+                String[] codes = readCodes();
+                VarHandle.loadLoadFence();
+                if ((long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET) != before) {
+                    continue;
+                }
+                current = new Layout(version, codes);
+                layout = current;
+            }
+            int index = currency.index();
+            int slot = index < current.slots.length ? current.slots[index] : -1;
+            double rate = slot < 0 ? Double.NaN : buffer.getDouble(ratesOffset + slot * Double.BYTES);
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET) == before) {
+                return rate;
+            }
+        }
+    }
+
+    /**
+     * Reads the current rate for a currency.
+     *
+     * @param currencyCode The code of the currency to read the rate for
+     * @return The rate from the base currency to the currency, or {@code NaN} if there's no rate for it,
+     *         nothing has been written yet, or the writer died mid-write
+     */
+    public double rate(String currencyCode) {
+        CurrencyId currency = CurrencyId.find(currencyCode);
+        return currency == null ? Double.NaN : rate(currency);
+    }
+
+    /**
+     * Reads a consistent copy of all current rates.
+     *
+     * @return The current snapshot, or {@code null} if nothing has been written yet, or the writer died mid-write
+     */
+    public RatesSnapshot read() {
+        while (true) {
+            long before = stableSequence();
+            if (before <= 0) {
+                return null;
+            }
+            long fetchedSeconds = buffer.getLong(FETCHED_SECONDS_OFFSET);
+            int fetchedNanos = buffer.getInt(FETCHED_NANOS_OFFSET);
+            long snapshotSequence = buffer.getLong(SNAPSHOT_SEQUENCE_OFFSET);
+            String baseCurrency = readCode(BASE_CURRENCY_OFFSET);
+            String[] codes = readCodes();
+            double[] rates = new double[codes.length];
+            for (int slot = 0; slot < codes.length; slot++) {
+                rates[slot] = buffer.getDouble(ratesOffset + slot * Double.BYTES);
+            }
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET) != before) {
+                continue;
+            }
+
+            RateTable.Builder table = new RateTable.Builder(CurrencyId.of(baseCurrency));
+            for (int slot = 0; slot < codes.length; slot++) {
+                if (!codes[slot].isEmpty()) {
+                    table.put(codes[slot], rates[slot]);
+                }
+            }
+            return new RatesSnapshot(
+                    table.build(),
+                    Instant.ofEpochSecond(fetchedSeconds, fetchedNanos),
+                    snapshotSequence
+            );
+        }
+    }
+
+    /**
+     * Waits for the writer to finish any write in progress, for up to {@value #MAX_WAIT_MILLIS} milliseconds,
+     * & returns the write sequence.
+     *
+     * @return The current write sequence, which is even, or {@code -1} if the write in progress didn't finish in time
+     */
+    private long stableSequence() {
+        long sequence = (long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET);
+        if ((sequence & 1) == 0) {
+            return sequence;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+        while (((sequence = (long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET)) & 1) != 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return -1;
+            }
+            Thread.onSpinWait();
+        }
+        return sequence;
+    }
+
+    /**
+     * Reads the codes of the currencies currently in the file, in slot order.
+     * The result is only valid if the write sequence didn't change meanwhile.
+     *
+     * @return The codes of the currencies in the file
+     */
+    private String[] readCodes() {
+        int count = Math.min(Math.max(buffer.getInt(COUNT_OFFSET), 0), capacity);
+        String[] codes = new String[count];
+        for (int slot = 0; slot < count; slot++) {
+            codes[slot] = readCode(CODES_OFFSET + slot * CODE_SIZE);
+        }
+        return codes;
+    }
+
+    /**
+     * Reads a zero-padded currency code.
+     *
+     * @param offset Where the code starts
+     * @return The code
+     */
+    private String readCode(int offset) {
+        byte[] code = new byte[CODE_SIZE];
+        buffer.get(offset, code);
+        int length = 0;
+        while (length < CODE_SIZE && code[length] != 0) {
+            length++;
+        }
+        return new String(code, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Which slot each currency is in, for one layout version.
+     */
+    private static class Layout {
+        private final int version;
+        private final int[] slots;
+
+        /**
+         * Creates the layout.
+         *
+         * @param version The layout version
+         * @param codes   The codes of the currencies in the file, in slot order
+         */
+        private Layout(int version, String[] codes) {
+            int[] slotsByIndex = new int[0];
+            for (int slot = 0; slot < codes.length; slot++) {
+                if (codes[slot].isEmpty()) {
+                    continue;
+                }
+                int index = CurrencyId.of(codes[slot]).index();
+                if (index >= slotsByIndex.length) {
+                    int previousLength = slotsByIndex.length;
+                    slotsByIndex = Arrays.copyOf(slotsByIndex, Math.max(index + 1, previousLength * 2));
+                    Arrays.fill(slotsByIndex, previousLength, slotsByIndex.length, -1);
+                }
+                slotsByIndex[index] = slot;
+            }
+            this.version = version;
+            this.slots = slotsByIndex;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes snapshots into a memory-mapped file, for {@link SharedRatesReader}s in other processes to read.
+ * The layout & the seqlock protocol are described by {@link SharedRatesReader}.
+ * <p>
+ * Only one writer may write to a file at a time.
+ */
+class SharedRatesWriter {
+    private static final Logger LOGGER = Logger.getLogger(SharedRatesWriter.class.getName());
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int ratesOffset;
+
+    // Guarded by this
+    private CurrencyId[] layout;
+    private boolean overflowLogged;
+
+    /**
+     * Maps a file for writing, creating it if needed. An existing file with the same capacity is reused,
+     * so readers that already have it mapped keep working. Any other existing file is replaced.
+     *
+     * @param file     The file to publish snapshots into
+     * @param capacity The most currencies the file has room for
+     * @throws IOException If the file can't be created or mapped
+     */
+    SharedRatesWriter(Path file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        MappedByteBuffer existing = mapExisting(file, capacity);
+        this.buffer = existing != null ? existing : mapReplacement(file, capacity);
+        this.capacity = capacity;
+        this.ratesOffset = SharedRatesReader.ratesOffset(capacity);
+
+        this.layout = new CurrencyId[0];
+        this.overflowLogged = false;
+    }
+
+    /**
+     * Maps an existing file for writing, if it's a shared rates file with the same capacity.
+     * If a previous writer died mid-write, its write is finished, leaving readers to see what it wrote.
+     *
+     * @param file     The file to map
+     * @param capacity The most currencies the file must have room for
+     * @return The mapped file, or {@code null} if there's no file, or it has another format or capacity
+     * @throws IOException If the file can't be mapped
+     */
+    private static MappedByteBuffer mapExisting(Path file, int capacity) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() != SharedRatesReader.fileSize(capacity)) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        } catch (NoSuchFileException nsfe) {
+            return null;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != SharedRatesReader.MAGIC
+                || buffer.getShort(4) != SharedRatesReader.VERSION
+                || buffer.getInt(SharedRatesReader.CAPACITY_OFFSET) != capacity) {
+            return null;
+        }
+        if (((long) SharedRatesReader.SEQUENCE.getAcquire(buffer, SharedRatesReader.SEQUENCE_OFFSET) & 1) != 0) {
+            SharedRatesReader.SEQUENCE.getAndAddRelease(buffer, SharedRatesReader.SEQUENCE_OFFSET, 1L);
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates an empty shared rates file next to {@code file}, & atomically moves it in place of {@code file}.
+     * An existing file is replaced rather than resized, as shrinking a file that readers have mapped
+     * crashes them the next time they read past its new end. Readers of the replaced file keep seeing
+     * its last rates until they open the file again.
+     *
+     * @param file     The file to replace
+     * @param capacity The most currencies the new file has room for
+     * @return The mapped new file
+     * @throws IOException If the file can't be created, mapped or moved
+     */
+    private static MappedByteBuffer mapReplacement(Path file, int capacity) throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(
+                    temporaryFile,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE
+            )) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SharedRatesReader.fileSize(capacity));
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, SharedRatesReader.MAGIC)
+                    .putShort(4, SharedRatesReader.VERSION)
+                    .putShort(6, (short) 0)
+                    .putInt(SharedRatesReader.CAPACITY_OFFSET, capacity)
+                    .putInt(SharedRatesReader.COUNT_OFFSET, 0)
+                    .putInt(SharedRatesReader.LAYOUT_OFFSET, 0);
+            SharedRatesReader.SEQUENCE.setRelease(buffer, SharedRatesReader.SEQUENCE_OFFSET, 0L);
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return buffer;
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Publishes a snapshot, replacing the one in the file. Never blocks readers.
+     * Currencies beyond the capacity of the file, or with codes longer than 8 characters, are left out.
+     *
+     * @param snapshot The snapshot to publish
+     */
+    synchronized void write(RatesSnapshot snapshot) {
+        RateTable rates = snapshot.getRates();
+        CurrencyId[] currencies = new CurrencyId[Math.min(rates.size(), capacity)];
+        int count = 0;
+        for (int i = 0; i < rates.size() && count < capacity; i++) {
+            CurrencyId currency = rates.currencyAt(i);
+            if (currency.code().length() <= SharedRatesReader.CODE_SIZE) {
+                currencies[count++] = currency;
+            }
+        }
+        if (count < rates.size() && !overflowLogged) {
+            LOGGER.log(Level.WARNING, "Only {0} of {1} rates fit in the shared memory file", new Object[]{count, rates.size()});
+            overflowLogged = true;
+        }
+        boolean layoutChanged = count != layout.length;
+        for (int slot = 0; slot < count && !layoutChanged; slot++) {
+            layoutChanged = currencies[slot] != layout[slot];
+        }
+
+        long sequence = (long) SharedRatesReader.SEQUENCE.getOpaque(buffer, SharedRatesReader.SEQUENCE_OFFSET);
+        SharedRatesReader.SEQUENCE.setOpaque(buffer, SharedRatesReader.SEQUENCE_OFFSET, sequence + 1);
+        VarHandle.storeStoreFence();
+
+        buffer.putLong(SharedRatesReader.FETCHED_SECONDS_OFFSET, snapshot.getFetchedAt().getEpochSecond())
+                .putInt(SharedRatesReader.FETCHED_NANOS_OFFSET, snapshot.getFetchedAt().getNano())
+                .putLong(SharedRatesReader.SNAPSHOT_SEQUENCE_OFFSET, snapshot.getSequence());
+        putCode(SharedRatesReader.BASE_CURRENCY_OFFSET, rates.getBaseCurrency());
+        if (layoutChanged) {
+            for (int slot = 0; slot < count; slot++) {
+                putCode(SharedRatesReader.CODES_OFFSET + slot * SharedRatesReader.CODE_SIZE, currencies[slot]);
+            }
+            buffer.putInt(SharedRatesReader.COUNT_OFFSET, count)
+                    .putInt(SharedRatesReader.LAYOUT_OFFSET, buffer.getInt(SharedRatesReader.LAYOUT_OFFSET) + 1);
+            layout = count == currencies.length ? currencies : Arrays.copyOf(currencies, count);
+        }
+        for (int slot = 0; slot < count; slot++) {
+            buffer.putDouble(ratesOffset + slot * Double.BYTES, rates.rate(currencies[slot]));
+        }
+
+        SharedRatesReader.SEQUENCE.setRelease(buffer, SharedRatesReader.SEQUENCE_OFFSET, sequence + 2);
+    }
+
+    /**
+     * Writes a zero-padded currency code.
+     *
+     * @param offset   Where to write the code
+     * @param currency The currency to write the code of, with a code of at most 8 characters
+     */
+    private void putCode(int offset, CurrencyId currency) {
+        byte[] code = currency.code().getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < SharedRatesReader.CODE_SIZE; i++) {
+            buffer.put(offset + i, i < code.length ? code[i] : 0);
+        }
+    }
+}
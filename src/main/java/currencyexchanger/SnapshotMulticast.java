@@ -0,0 +1,148 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends & receives snapshots over UDP multicast, so the leader of a fleet can share its rates with the other nodes.
+ * <p>
+ * Each snapshot is sent as a single datagram, in the {@link SnapshotStore} layout, which is checksummed,
+ * so corrupt datagrams are dropped. Datagrams aren't authenticated, so the multicast group must only be
+ * reachable by trusted nodes. Snapshots are received on a daemon thread.
+ */
+class SnapshotMulticast {
+    private static final Logger LOGGER = Logger.getLogger(SnapshotMulticast.class.getName());
+
+    /**
+     * The largest UDP payload that fits in a single IPv4 datagram.
+     */
+    static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private final InetSocketAddress group;
+    private final DatagramChannel channel;
+    private final Thread receiver;
+
+    /**
+     * Opens the channel, joins the multicast group, & starts receiving snapshots.
+     *
+     * @param group            The multicast group & port to send to & receive from
+     * @param networkInterface The network interface to use, or {@code null} to pick one
+     * @param onReceive        Receives every snapshot received, on the receiving thread
+     * @throws IOException If the channel can't be opened, or the group can't be joined
+     */
+    SnapshotMulticast(
+            InetSocketAddress group,
+            NetworkInterface networkInterface,
+            Consumer<RatesSnapshot> onReceive
+    ) throws IOException {
+        InetAddress address = group.getAddress();
+        if (address == null || !address.isMulticastAddress()) {
+            throw new IOException(group + " is not a multicast address");
+        }
+        NetworkInterface joinedInterface = networkInterface != null ? networkInterface : defaultInterface();
+        this.group = group;
+        this.channel = DatagramChannel.open(address instanceof Inet6Address
+                ? StandardProtocolFamily.INET6
+                : StandardProtocolFamily.INET
+        );
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                    .setOption(StandardSocketOptions.IP_MULTICAST_IF, joinedInterface)
+                    .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true)
+                    .bind(new InetSocketAddress(group.getPort()));
+            channel.join(address, joinedInterface);
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+
+        this.receiver = new Thread(() -> receive(onReceive), "RatesManager-fleet-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Sends a snapshot to every node in the group.
+     *
+     * @param snapshot The snapshot to send
+     * @return Whether the snapshot was sent, or {@code false} if it's too large for a single datagram
+     * @throws IOException If the snapshot can't be sent
+     */
+    boolean send(RatesSnapshot snapshot) throws IOException {
+        byte[] encoded = SnapshotStore.encode(snapshot);
+        if (encoded.length > MAX_DATAGRAM_SIZE) {
+            LOGGER.log(Level.WARNING, "A snapshot of {0} bytes is too large to send to the fleet", encoded.length);
+            return false;
+        }
+        channel.send(ByteBuffer.wrap(encoded), group);
+        return true;
+    }
+
+    /**
+     * Stops receiving snapshots, & closes the channel.
+     *
+     * @throws IOException If the channel can't be closed
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Receives snapshots until the channel is closed.
+     *
+     * @param onReceive Receives every snapshot received
+     */
+    private void receive(Consumer<RatesSnapshot> onReceive) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                onReceive.accept(SnapshotStore.decode(buffer));
+            } catch (ClosedChannelException cce) {
+                return;
+            } catch (IOException ioe) {
+                LOGGER.log(Level.FINE, "Dropped an invalid datagram from the fleet", ioe);
+            } catch (RuntimeException re) {
+                LOGGER.log(Level.WARNING, "Handling a snapshot from the fleet failed", re);
+            }
+        }
+    }
+
+    /**
+     * Picks a network interface to join the multicast group on. Interfaces that are up, support multicast
+     * & aren't loopback interfaces are preferred, falling back to the loopback interface.
+     *
+     * @return The network interface to use
+     * @throws IOException If no network interface supports multicast
+     */
+    private static NetworkInterface defaultInterface() throws IOException {
+        NetworkInterface loopback = null;
+        for (NetworkInterface candidate : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!candidate.isUp() || !candidate.supportsMulticast()) {
+                continue;
+            }
+            if (!candidate.isLoopback()) {
+                return candidate;
+            }
+            loopback = candidate;
+        }
+        if (loopback == null) {
+            throw new IOException("No network interface supports multicast");
+        }
+        return loopback;
+    }
+}
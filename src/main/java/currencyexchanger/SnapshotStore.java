@@ -0,0 +1,238 @@
+package currencyexchanger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the latest snapshot of each subscription on disk, so a restarted manager has usable rates
+ * before its first fetch completes.
+ * <p>
+ * Each snapshot is kept in its own file, in a compact binary layout (all values big-endian):
+ * <pre>
+ * int    magic, "RATE"
+ * short  format version
+ * short  reserved, always 0
+ * long   sequence number
+ * long   fetch time, seconds since the epoch
+ * int    fetch time, nanosecond adjustment
+ * int    amount of rates, n
+ * double rates[n]
+ * code   base currency
+ * code   currencies[n]
+ * int    CRC32 of everything above
+ * </pre>
+ * where each {@code code} is one unsigned length byte followed by that many ASCII bytes,
+ * so codes are at most {@value #MAX_CODE_LENGTH} characters long.
+ * Files are replaced atomically, & read through a memory-mapped {@link FileChannel}.
+ */
+class SnapshotStore {
+    private static final int MAGIC = 0x52415445;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAX_FILE_NAME_CURRENCIES_LENGTH = 100;
+    private static final int MAX_CODE_LENGTH = 255;
+
+    private final Path directory;
+
+    /**
+     * Creates the store. The directory is created when the first snapshot is saved.
+     *
+     * @param directory The directory to keep snapshot files in
+     */
+    SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Saves a snapshot, replacing any snapshot previously saved for the same base currency & currencies.
+     *
+     * @param baseCurrency The base currency of the subscription the snapshot is for, in upper case
+     * @param currencies   The currencies of the subscription the snapshot is for, or {@code null} if it's for all
+     * @param snapshot     The snapshot to save
+     * @throws IOException If the snapshot can't be written
+     */
+    void save(String baseCurrency, Set<String> currencies, RatesSnapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path file = fileFor(baseCurrency, currencies);
+        Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporaryFile, encode(snapshot));
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Loads the snapshot saved for a base currency & currencies.
+     *
+     * @param baseCurrency The base currency of the subscription to load the snapshot for, in upper case
+     * @param currencies   The currencies of the subscription to load the snapshot for, or {@code null} if it's for all
+     * @return The saved snapshot, or {@code null} if there is none
+     * @throws IOException If the snapshot file exists, but can't be read or is corrupt
+     */
+    RatesSnapshot load(String baseCurrency, Set<String> currencies) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileFor(baseCurrency, currencies), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer);
+        } catch (NoSuchFileException nsfe) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the file a subscription's snapshot is kept in.
+     *
+     * @param baseCurrency The base currency of the subscription, in upper case
+     * @param currencies   The currencies of the subscription, or {@code null} if it's for all currencies
+     * @return The file the snapshot is kept in
+     */
+    private Path fileFor(String baseCurrency, Set<String> currencies) {
+        if (currencies == null) {
+            return directory.resolve(baseCurrency + ".rates");
+        }
+        String currencyList = String.join("-", new TreeSet<>(currencies));
+        if (currencyList.length() > MAX_FILE_NAME_CURRENCIES_LENGTH) {
+            // Too long for a file name, so named by a digest, which different lists won't share
+            try {
+                currencyList = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                        .digest(currencyList.getBytes(StandardCharsets.US_ASCII))
+                );
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new IllegalStateException("Every Java platform supports SHA-256", nsae);
+            }
+        }
+        return directory.resolve(baseCurrency + "_" + currencyList + ".rates");
+    }
+
+    /**
+     * Encodes a snapshot into the binary layout.
+     *
+     * @param snapshot The snapshot to encode
+     * @return The encoded snapshot
+     * @throws IOException If a currency code is longer than {@value #MAX_CODE_LENGTH} characters
+     */
+    static byte[] encode(RatesSnapshot snapshot) throws IOException {
+        RateTable rates = snapshot.getRates();
+        int size = rates.size();
+        int codesSize = codeSize(rates.getBaseCurrency());
+        for (int i = 0; i < size; i++) {
+            codesSize += codeSize(rates.currencyAt(i));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * Double.BYTES + codesSize + Integer.BYTES)
+                .order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) 0)
+                .putLong(snapshot.getSequence())
+                .putLong(snapshot.getFetchedAt().getEpochSecond())
+                .putInt(snapshot.getFetchedAt().getNano())
+                .putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putDouble(rates.rate(rates.currencyAt(i)));
+        }
+        putCode(buffer, rates.getBaseCurrency());
+        for (int i = 0; i < size; i++) {
+            putCode(buffer, rates.currencyAt(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Returns the size of an encoded currency code.
+     *
+     * @param currency The currency to get the size of the encoded code of
+     * @return The size of the encoded code, in bytes
+     * @throws IOException If the code is longer than {@value #MAX_CODE_LENGTH} characters
+     */
+    private static int codeSize(CurrencyId currency) throws IOException {
+        int length = currency.code().length();
+        if (length > MAX_CODE_LENGTH) {
+            throw new IOException("The currency code " + currency.code() + " is too long for a snapshot");
+        }
+        return 1 + length;
+    }
+
+    /**
+     * Writes a currency code as one unsigned length byte followed by its ASCII bytes.
+     *
+     * @param buffer   The buffer to write to
+     * @param currency The currency to write the code of
+     */
+    private static void putCode(ByteBuffer buffer, CurrencyId currency) {
+        byte[] code = currency.code().getBytes(StandardCharsets.US_ASCII);
+        buffer.put((byte) code.length).put(code);
+    }
+
+    /**
+     * Decodes a snapshot from the binary layout.
+     *
+     * @param buffer The encoded snapshot, positioned at its start
+     * @return The decoded snapshot
+     * @throws IOException If the snapshot is corrupt, or in an unknown format
+     */
+    static RatesSnapshot decode(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, buffer.limit() - Integer.BYTES));
+            if ((int) crc.getValue() != buffer.getInt(buffer.limit() - Integer.BYTES)) {
+                throw new IOException("Snapshot file is corrupt");
+            }
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                throw new IOException("Snapshot file has an unknown format");
+            }
+            buffer.getShort();
+            long sequence = buffer.getLong();
+            Instant fetchedAt = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+            int size = buffer.getInt();
+
+            int ratesStart = buffer.position();
+            buffer.position(ratesStart + size * Double.BYTES);
+            RateTable.Builder rates = new RateTable.Builder(getCode(buffer));
+            for (int i = 0; i < size; i++) {
+                rates.put(getCode(buffer), buffer.getDouble(ratesStart + i * Double.BYTES));
+            }
+            return new RatesSnapshot(rates.build(), fetchedAt, sequence);
+        } catch (RuntimeException re) {
+            throw new IOException("Snapshot file is corrupt", re);
+        }
+    }
+
+    /**
+     * Reads a currency code written by {@link #putCode(ByteBuffer, CurrencyId)}.
+     *
+     * @param buffer The buffer to read from
+     * @return The currency with the code
+     */
+    private static CurrencyId getCode(ByteBuffer buffer) {
+        byte[] code = new byte[Byte.toUnsignedInt(buffer.get())];
+        buffer.get(code);
+        return CurrencyId.of(new String(code, StandardCharsets.US_ASCII));
+    }
+}